@@ -242,6 +242,10 @@ private val SERVER_REFERENCE_FALLBACK =
     server.flareSolverrSessionName = "extension.bridge"
     server.flareSolverrSessionTtl = 15 # time in minutes
     server.flareSolverrAsResponseFallback = false
+    server.requestCoalescingEnabled = false
+    server.adaptiveConcurrencyEnabled = false
+    server.captureCallStack = false
+    server.dohProvider = -1 # PREF_DOH_* provider, -1 to use the system resolver
     server.debugLogsEnabled = false
     #
     """.trimIndent()
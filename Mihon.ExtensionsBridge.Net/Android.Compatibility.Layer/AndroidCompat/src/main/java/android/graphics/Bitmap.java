@@ -2,6 +2,7 @@ package android.graphics;
 
 import android.annotation.ColorInt;
 import android.annotation.NonNull;
+import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -9,12 +10,18 @@ import java.io.OutputStream;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 
 public final class Bitmap {
@@ -22,6 +29,21 @@ public final class Bitmap {
     private final int height;
     private final BufferedImage image;
 
+    // ImageWriter lookups go through the SPI registry, so keep a few idle instances per format
+    private static final int MAX_POOLED_WRITERS = 4;
+    private static final Map<CompressFormat, Queue<ImageWriter>> sWriterPool = new EnumMap<>(CompressFormat.class);
+
+    // Scratch images for the JPEG RGB conversion, reused by size since the pages of a chapter mostly share one
+    private static final long MAX_POOLED_RGB_PIXELS = 8L * 1024 * 1024;
+    private static final ArrayDeque<BufferedImage> sRgbBuffers = new ArrayDeque<>();
+    private static long sRgbBufferPixels;
+
+    static {
+        for (CompressFormat format : CompressFormat.values()) {
+            sWriterPool.put(format, new ConcurrentLinkedQueue<>());
+        }
+    }
+
     public Bitmap(BufferedImage image) {
         this.image = image;
         this.width = image.getWidth();
@@ -169,51 +191,157 @@ public final class Bitmap {
         }
         float qualityFloat = ((float) quality) / 100;
 
+        ImageWriter writer = obtainWriter(format);
+        boolean reusable = false;
+        BufferedImage rgbBuffer = null;
+        try {
+            BufferedImage img = image;
+
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format == CompressFormat.JPEG) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(qualityFloat);
+
+                if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+                    rgbBuffer = toRgbImage(image);
+                    img = rgbBuffer;
+                }
+            } else if (format != CompressFormat.PNG && param.canWriteCompressed()) {
+                // Android treats WEBP at quality 100 as lossless
+                boolean lossless = format == CompressFormat.WEBP_LOSSLESS
+                        || (format == CompressFormat.WEBP && quality == 100);
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                String type = findCompressionType(param, lossless ? "lossless" : "lossy");
+                if (type != null) {
+                    param.setCompressionType(type);
+                }
+                if (!lossless) {
+                    param.setCompressionQuality(qualityFloat);
+                }
+            }
+
+            // Always encode through memory, ImageIO.createImageOutputStream may pick a file backed cache
+            ImageOutputStream ios = new MemoryCacheImageOutputStream(stream);
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(img, null, null), param);
+            ios.close();
+            reusable = true;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            releaseWriter(format, writer, reusable);
+            if (rgbBuffer != null) {
+                recycleRgbBuffer(rgbBuffer);
+            }
+        }
+
+        return true;
+    }
+
+    private static ImageWriter obtainWriter(CompressFormat format) {
+        ImageWriter writer = sWriterPool.get(format).poll();
+        if (writer != null) {
+            return writer;
+        }
+
         String formatString;
-        if (format == Bitmap.CompressFormat.PNG) {
+        if (format == CompressFormat.PNG) {
             formatString = "png";
-        } else if (format == Bitmap.CompressFormat.JPEG) {
+        } else if (format == CompressFormat.JPEG) {
             formatString = "jpg";
-        } else if (format == Bitmap.CompressFormat.WEBP || format == Bitmap.CompressFormat.WEBP_LOSSY) {
+        } else if (format == CompressFormat.WEBP || format == CompressFormat.WEBP_LOSSY
+                || format == CompressFormat.WEBP_LOSSLESS) {
             formatString = "webp";
         } else {
             throw new IllegalArgumentException("unsupported compression format! " + format);
         }
 
-        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatString);
-        if (!writers.hasNext()) {
+        Iterator<ImageWriter> candidates = ImageIO.getImageWritersByFormatName(formatString);
+        if (!candidates.hasNext()) {
             throw new IllegalStateException("no image writers found for this format!");
         }
-        ImageWriter writer = writers.next();
+        return candidates.next();
+    }
 
-        ImageOutputStream ios;
-        try {
-            ios = ImageIO.createImageOutputStream(stream);
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+    /**
+     * Returns a writer to the pool, writers that failed or don't fit in it anymore are disposed.
+     */
+    private static void releaseWriter(CompressFormat format, ImageWriter writer, boolean reusable) {
+        Queue<ImageWriter> pool = sWriterPool.get(format);
+        if (reusable && pool.size() < MAX_POOLED_WRITERS) {
+            writer.reset();
+            pool.offer(writer);
+        } else {
+            writer.dispose();
         }
-        writer.setOutput(ios);
-
-        BufferedImage img = image;
-
-        ImageWriteParam param = writer.getDefaultWriteParam();
-        if ("jpg".equals(formatString)) {
-            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-            param.setCompressionQuality(qualityFloat);
+    }
 
-            img = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-            img.getGraphics().drawImage(image, 0, 0, null);
+    private static String findCompressionType(ImageWriteParam param, String name) {
+        String[] types = param.getCompressionTypes();
+        if (types == null) {
+            return null;
         }
+        for (String type : types) {
+            if (type.equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
 
+    /**
+     * The JPEG writer expects plain RGB, so any other image type is redrawn into a pooled
+     * TYPE_INT_RGB image, which also drops the alpha channel. Hand it back with recycleRgbBuffer.
+     */
+    private static BufferedImage toRgbImage(BufferedImage source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        BufferedImage img = obtainRgbBuffer(width, height);
+        Graphics2D graphics = img.createGraphics();
         try {
-            writer.write(null, new IIOImage(img, null, null), param);
-            ios.close();
-            writer.dispose();
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+            // A reused buffer still holds its last image, transparent pixels must end up black as on a new one
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(0, 0, width, height);
+            graphics.setComposite(AlphaComposite.SrcOver);
+            graphics.drawImage(source, 0, 0, null);
+        } finally {
+            graphics.dispose();
         }
+        return img;
+    }
 
-        return true;
+    private static BufferedImage obtainRgbBuffer(int width, int height) {
+        synchronized (sRgbBuffers) {
+            Iterator<BufferedImage> buffers = sRgbBuffers.iterator();
+            while (buffers.hasNext()) {
+                BufferedImage buffer = buffers.next();
+                if (buffer.getWidth() == width && buffer.getHeight() == height) {
+                    buffers.remove();
+                    sRgbBufferPixels -= (long) width * height;
+                    return buffer;
+                }
+            }
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Keeps a conversion buffer for the next image of the same size, dropping the oldest ones
+     * once the pool holds more than MAX_POOLED_RGB_PIXELS.
+     */
+    private static void recycleRgbBuffer(BufferedImage buffer) {
+        long pixels = (long) buffer.getWidth() * buffer.getHeight();
+        if (pixels > MAX_POOLED_RGB_PIXELS) {
+            return;
+        }
+        synchronized (sRgbBuffers) {
+            while (sRgbBufferPixels + pixels > MAX_POOLED_RGB_PIXELS) {
+                BufferedImage oldest = sRgbBuffers.removeFirst();
+                sRgbBufferPixels -= (long) oldest.getWidth() * oldest.getHeight();
+            }
+            sRgbBuffers.addLast(buffer);
+            sRgbBufferPixels += pixels;
+        }
     }
 
     public Bitmap copy(Config config, boolean isMutable) {
@@ -1,38 +1,40 @@
 package android.graphics;
 
+import android.util.Log;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.util.EnumMap;
 import java.util.Iterator;
+import java.util.Map;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 public class BitmapFactory {
-    public static Bitmap decodeStream(InputStream inputStream) {
-        Bitmap bitmap = null;
+    private static final String TAG = "BitmapFactory";
 
-        try {
-            ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream);
-            Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+    private static final int HEADER_SIZE = 12;
 
-            if (!imageReaders.hasNext()) {
-                throw new IllegalArgumentException("no reader for image");
-            }
+    // Readers resolved from the sniffed header, reused per thread to skip SPI probing on every page
+    private static final ThreadLocal<Map<ImageType, ImageReader>> sReaders =
+            ThreadLocal.withInitial(() -> new EnumMap<>(ImageType.class));
 
-            ImageReader imageReader = imageReaders.next();
-            imageReader.setInput(imageInputStream);
-
-            BufferedImage image = imageReader.read(0, imageReader.getDefaultReadParam());
-            bitmap = new Bitmap(image);
+    public static Bitmap decodeStream(InputStream inputStream) {
+        try {
+            ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream);
+            byte[] header = new byte[HEADER_SIZE];
+            imageInputStream.mark();
+            int headerLength = imageInputStream.read(header, 0, HEADER_SIZE);
+            imageInputStream.reset();
 
-            imageReader.dispose();
+            BufferedImage image = read(imageInputStream, sniff(header, 0, Math.max(headerLength, 0)), null);
+            return new Bitmap(image);
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
-
-        return bitmap;
     }
 
     public static Bitmap decodeByteArray(byte[] data, int offset, int length) {
@@ -50,28 +52,145 @@ public class BitmapFactory {
         int availableLength = Math.min(length, data.length - offset);
         Bitmap bitmap = null;
 
-        ByteArrayInputStream byteArrayStream = new ByteArrayInputStream(data, offset, availableLength);
+        ImageType type = sniff(data, offset, availableLength);
+        ImageInputStream imageInputStream = new MemoryCacheImageInputStream(
+                new ByteArrayInputStream(data, offset, availableLength));
         try {
-            BufferedImage image = ImageIO.read(byteArrayStream);
+            BufferedImage image = read(imageInputStream, type, opts);
             if (image != null) {
                 if (opts != null) {
                     opts.outWidth = image.getWidth();
                     opts.outHeight = image.getHeight();
                 }
-                if (opts == null || !opts.inJustDecodeBounds) {
-                    bitmap = new Bitmap(image);
-                }
-            } else if (opts != null) {
+                bitmap = new Bitmap(image);
+            }
+        } catch (IllegalArgumentException | IOException ex) {
+            // Android reports undecodable data as a null bitmap rather than an exception, the data is in memory
+            // so an IOException can only come from the decoder
+            Log.w(TAG, ex.getMessage());
+            if (opts != null) {
                 opts.outWidth = 0;
                 opts.outHeight = 0;
             }
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
         }
 
         return bitmap;
     }
 
+    /**
+     * Decodes the first image of the stream with the reader registered for the sniffed type,
+     * falling back to ImageIO probing for headers we don't recognize.
+     * When only bounds are requested, they are written to opts and null is returned.
+     *
+     * @throws IllegalArgumentException if no reader can handle the data
+     */
+    private static BufferedImage read(ImageInputStream imageInputStream, ImageType type, Options opts)
+            throws IOException {
+        if (type == null) {
+            Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+            if (!imageReaders.hasNext()) {
+                throw new IllegalArgumentException("no reader for image");
+            }
+            ImageReader imageReader = imageReaders.next();
+            try {
+                return readWith(imageReader, imageInputStream, opts);
+            } finally {
+                imageReader.dispose();
+            }
+        }
+
+        Map<ImageType, ImageReader> readers = sReaders.get();
+        ImageReader imageReader = readers.get(type);
+        if (imageReader == null) {
+            Iterator<ImageReader> imageReaders = ImageIO.getImageReadersByFormatName(type.formatName);
+            if (!imageReaders.hasNext()) {
+                throw new IllegalArgumentException("unsupported image format: " + type);
+            }
+            imageReader = imageReaders.next();
+            readers.put(type, imageReader);
+        }
+        BufferedImage image;
+        try {
+            image = readWith(imageReader, imageInputStream, opts);
+        } catch (IOException | RuntimeException ex) {
+            // don't keep a reader around in an unknown state, a disposed reader can't be reset either
+            readers.remove(type);
+            imageReader.dispose();
+            throw ex;
+        }
+        imageReader.setInput(null);
+        return image;
+    }
+
+    private static BufferedImage readWith(ImageReader imageReader, ImageInputStream imageInputStream, Options opts)
+            throws IOException {
+        imageReader.setInput(imageInputStream, true, true);
+        if (opts != null && opts.inJustDecodeBounds) {
+            opts.outWidth = imageReader.getWidth(0);
+            opts.outHeight = imageReader.getHeight(0);
+            return null;
+        }
+        return imageReader.read(0, imageReader.getDefaultReadParam());
+    }
+
+    /**
+     * Identifies the container from its magic bytes.
+     *
+     * @return the detected type, or null if the header is not one we route directly
+     */
+    static ImageType sniff(byte[] data, int offset, int length) {
+        if (length >= 3 && u8(data, offset) == 0xFF && u8(data, offset + 1) == 0xD8 && u8(data, offset + 2) == 0xFF) {
+            return ImageType.JPEG;
+        }
+        if (length >= 8 && u8(data, offset) == 0x89 && matches(data, offset + 1, "PNG")
+                && u8(data, offset + 4) == 0x0D && u8(data, offset + 5) == 0x0A
+                && u8(data, offset + 6) == 0x1A && u8(data, offset + 7) == 0x0A) {
+            return ImageType.PNG;
+        }
+        if (length >= 12 && matches(data, offset, "RIFF") && matches(data, offset + 8, "WEBP")) {
+            return ImageType.WEBP;
+        }
+        if (length >= 6 && (matches(data, offset, "GIF87a") || matches(data, offset, "GIF89a"))) {
+            return ImageType.GIF;
+        }
+        if (length >= 12 && matches(data, offset + 4, "ftyp")
+                && (matches(data, offset + 8, "avif") || matches(data, offset + 8, "avis"))) {
+            return ImageType.AVIF;
+        }
+        if (length >= 2 && matches(data, offset, "BM")) {
+            return ImageType.BMP;
+        }
+        return null;
+    }
+
+    private static int u8(byte[] data, int index) {
+        return data[index] & 0xFF;
+    }
+
+    private static boolean matches(byte[] data, int offset, String ascii) {
+        for (int i = 0; i < ascii.length(); i++) {
+            if (data[offset + i] != (byte) ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    enum ImageType {
+        JPEG("jpeg"),
+        PNG("png"),
+        WEBP("webp"),
+        GIF("gif"),
+        AVIF("avif"),
+        BMP("bmp");
+
+        final String formatName;
+
+        ImageType(String formatName) {
+            this.formatName = formatName;
+        }
+    }
+
     public static final class Options {
         public boolean inJustDecodeBounds;
         public Bitmap.Config inPreferredConfig = Bitmap.Config.ARGB_8888;
@@ -11,11 +11,12 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.font.TextAttribute;
-import java.awt.font.GlyphVector;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Line2D;
 import java.awt.image.BufferedImage;
-import java.text.AttributedString;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,6 +34,9 @@ public final class Canvas {
 
     public void drawBitmap(Bitmap sourceBitmap, Rect src, Rect dst, Paint paint) {
         BufferedImage sourceImage = sourceBitmap.getImage();
+        if (tryCopyPixels(sourceImage, src, dst, paint)) {
+            return;
+        }
         BufferedImage sourceImageCropped = sourceImage.getSubimage(src.left, src.top, src.getWidth(), src.getHeight());
         canvas.drawImage(sourceImageCropped, dst.left, dst.top, dst.getWidth(), dst.getHeight(), null);
     }
@@ -49,15 +53,15 @@ public final class Canvas {
 
     public void drawText(@NonNull String str, float x, float y, @NonNull Paint paint) {
         applyPaint(paint);
-        AttributedString text = paint.getTypeface().createWithFallback(str);
+        TextMetricsCache.TextRun run = TextMetricsCache.getRun(paint.getTypeface(), str);
         canvas.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_LCD_HRGB);
+        if (paint.getStyle() == Paint.Style.FILL) {
+            canvas.drawString(run.getFallbackText().getIterator(), x, y);
+            return;
+        }
         // TODO: fix with fallback fonts
-        GlyphVector glyphVector = paint.getTypeface().getFont().createGlyphVector(canvas.getFontRenderContext(), text.getIterator());
-        Shape textShape = glyphVector.getOutline();
+        Shape textShape = run.getGlyphs().getOutline();
         switch (paint.getStyle()) {
-            case FILL:
-                canvas.drawString(text.getIterator(), x, y);
-                break;
             case STROKE:
                 save();
                 translate(x, y);
@@ -188,6 +192,98 @@ public final class Canvas {
         canvas.fillRect(0, 0, canvasImage.getWidth(), canvasImage.getHeight());
     }
 
+    /**
+     * Fast path for unscaled, integer-aligned tile copies (the bulk of what page descramblers do).
+     * Rows are moved directly between the backing int arrays, bypassing the Java2D pipeline.
+     *
+     * @return false if the copy is not eligible and has to go through Graphics2D
+     */
+    private boolean tryCopyPixels(BufferedImage sourceImage, Rect src, Rect dst, Paint paint) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        if (width <= 0 || height <= 0 || width != dst.getWidth() || height != dst.getHeight()) {
+            return false;
+        }
+        if (!hasNoEffects(paint) || !canvas.getTransform().isIdentity() || canvas.getClip() != null) {
+            return false;
+        }
+        if (src.left < 0 || src.top < 0 || src.right > sourceImage.getWidth() || src.bottom > sourceImage.getHeight()) {
+            return false;
+        }
+        if (dst.left < 0 || dst.top < 0 || dst.right > canvasImage.getWidth() || dst.bottom > canvasImage.getHeight()) {
+            return false;
+        }
+        int sourceType = sourceImage.getType();
+        int targetType = canvasImage.getType();
+        if (!isIntPacked(sourceType) || !isIntPacked(targetType)) {
+            return false;
+        }
+        WritableRaster sourceRaster = sourceImage.getRaster();
+        WritableRaster targetRaster = canvasImage.getRaster();
+        if (!(sourceRaster.getSampleModel() instanceof SinglePixelPackedSampleModel)
+                || !(targetRaster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return false;
+        }
+        int[] sourcePixels = ((DataBufferInt) sourceRaster.getDataBuffer()).getData();
+        int[] targetPixels = ((DataBufferInt) targetRaster.getDataBuffer()).getData();
+        int sourceStride = ((SinglePixelPackedSampleModel) sourceRaster.getSampleModel()).getScanlineStride();
+        int targetStride = ((SinglePixelPackedSampleModel) targetRaster.getSampleModel()).getScanlineStride();
+        int sourceOffset = sourceRaster.getDataBuffer().getOffset()
+                + (src.top - sourceRaster.getSampleModelTranslateY()) * sourceStride
+                + (src.left - sourceRaster.getSampleModelTranslateX());
+        int targetOffset = targetRaster.getDataBuffer().getOffset()
+                + (dst.top - targetRaster.getSampleModelTranslateY()) * targetStride
+                + (dst.left - targetRaster.getSampleModelTranslateX());
+
+        // SrcOver only degenerates to a plain copy when every source pixel is opaque
+        if (sourceType == BufferedImage.TYPE_INT_ARGB
+                && !isOpaque(sourcePixels, sourceOffset, sourceStride, width, height)) {
+            return false;
+        }
+        boolean forceAlpha = sourceType == BufferedImage.TYPE_INT_RGB && targetType == BufferedImage.TYPE_INT_ARGB;
+
+        // Walk bottom-up when copying downwards within the same buffer so rows are not overwritten before being read
+        boolean reverse = sourcePixels == targetPixels && targetOffset > sourceOffset;
+        for (int i = 0; i < height; i++) {
+            int row = reverse ? height - 1 - i : i;
+            int from = sourceOffset + row * sourceStride;
+            int to = targetOffset + row * targetStride;
+            if (forceAlpha) {
+                for (int x = 0; x < width; x++) {
+                    targetPixels[to + x] = sourcePixels[from + x] | 0xFF000000;
+                }
+            } else {
+                System.arraycopy(sourcePixels, from, targetPixels, to, width);
+            }
+        }
+        return true;
+    }
+
+    private static boolean hasNoEffects(Paint paint) {
+        return paint == null
+                || (paint.getAlpha() == 255
+                && paint.getColorFilter() == null
+                && paint.getXfermode() == null
+                && paint.getShader() == null
+                && paint.getMaskFilter() == null);
+    }
+
+    private static boolean isIntPacked(int type) {
+        return type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_RGB;
+    }
+
+    private static boolean isOpaque(int[] pixels, int offset, int stride, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int rowStart = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                if ((pixels[rowStart + x] >>> 24) != 0xFF) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private void applyPaint(Paint paint) {
         canvas.setFont(paint.getTypeface().getFont());
         java.awt.Color color = Color.valueOf(paint.getColorLong()).toJavaColor();
@@ -0,0 +1,107 @@
+package android.graphics;
+
+import android.util.Log;
+import java.awt.Font;
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide registry of the fonts backing {@link Typeface}.
+ *
+ * The bundled NotoSans files are several megabytes each, so they are only parsed the first time a
+ * family using them is resolved, and every Typeface shares the resulting base Font instances.
+ *
+ * @hide
+ */
+final class FontRegistry {
+    private static final String TAG = "FontRegistry";
+
+    static final float BASE_SIZE = 12.0f;
+
+    private static final ConcurrentHashMap<String, Optional<Font>> sAssets = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Font> sSystemFonts = new ConcurrentHashMap<>();
+
+    private FontRegistry() {
+    }
+
+    /** Returns the bundled font at {@code font/<path>}, or null if it can't be loaded. */
+    static Font getAsset(String path) {
+        return sAssets.computeIfAbsent(path, p -> Optional.ofNullable(loadAsset(p))).orElse(null);
+    }
+
+    /** Returns a shared logical/system font, e.g. {@link Font#SERIF}. */
+    static Font getSystemFont(String familyName) {
+        String key = familyName == null ? Font.DIALOG : familyName;
+        return sSystemFonts.computeIfAbsent(key, name -> new Font(familyName, Font.PLAIN, (int) BASE_SIZE));
+    }
+
+    private static Font loadAsset(String path) {
+        long start = System.nanoTime();
+        try {
+            URL url = FontRegistry.class.getClassLoader().getResource("font/" + path);
+            if (url == null) {
+                url = ClassLoader.getSystemClassLoader().getResource("font/" + path);
+            }
+            if (url == null) {
+                Log.e(TAG, "Missing bundled font " + path);
+                return null;
+            }
+            Font font;
+            if ("file".equals(url.getProtocol())) {
+                // Loading from the file lets the font scaler map it instead of spooling a temp copy
+                font = Font.createFont(Font.TRUETYPE_FONT, new File(url.toURI()));
+            } else {
+                try (InputStream stream = url.openStream()) {
+                    font = Font.createFont(Font.TRUETYPE_FONT, stream);
+                }
+            }
+            Log.v(TAG, String.format("Loaded font %s in %d ms", path, (System.nanoTime() - start) / 1_000_000));
+            return font.deriveFont(BASE_SIZE);
+        } catch (Exception ex) {
+            Log.e(TAG, "Failed to load " + path, ex);
+            return null;
+        }
+    }
+
+    /**
+     * A bundled font with its fallback chain, resolved on first use.
+     */
+    static final class Family {
+        private final String mMainAsset;
+        private final String mSystemFallback;
+        private final int mStyle;
+        private final String[] mFallbackAssets;
+
+        Family(String systemFallback, int style, String mainAsset, String... fallbackAssets) {
+            mSystemFallback = systemFallback;
+            mStyle = style;
+            mMainAsset = mainAsset;
+            mFallbackAssets = fallbackAssets;
+        }
+
+        Font resolveMain() {
+            Font main = getAsset(mMainAsset);
+            if (main == null) main = getSystemFont(null);
+            return mStyle == Font.PLAIN ? main : main.deriveFont(mStyle);
+        }
+
+        List<Font> resolveFallbacks() {
+            List<Font> fallbacks = new ArrayList<>(mFallbackAssets.length + 1);
+            for (String asset : mFallbackAssets) {
+                Font font = getAsset(asset);
+                if (font != null) {
+                    fallbacks.add(mStyle == Font.PLAIN ? font : font.deriveFont(mStyle));
+                }
+            }
+            Font system = getSystemFont(mSystemFallback);
+            fallbacks.add(mStyle == Font.PLAIN ? system : system.deriveFont(mStyle));
+            return Collections.unmodifiableList(fallbacks);
+        }
+    }
+}
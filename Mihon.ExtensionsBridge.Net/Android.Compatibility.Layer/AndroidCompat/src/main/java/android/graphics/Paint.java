@@ -69,6 +69,11 @@ public class Paint {
     private float           mStrokeWidth = 1.0f;
     private Typeface        mTypeface = Typeface.DEFAULT;
 
+    // mTypeface at the compat scaled size, rederived only when either of them changes
+    private Typeface        mScaledTypeface;
+    private Typeface        mScaledTypefaceSource;
+    private float           mScaledTypefaceScaling;
+
     private static final Object sCacheLock = new Object();
 
     private static final HashMap<String, Integer> sMinikinLocaleListIdCache = new HashMap<>();
@@ -831,8 +836,10 @@ public class Paint {
     }
 
     public float getFontMetrics(FontMetrics metrics) {
-        java.awt.Canvas c = new java.awt.Canvas();
-        java.awt.FontMetrics m = c.getFontMetrics(mTypeface.getFont());
+        java.awt.FontMetrics m = TextMetricsCache.getFontMetrics(mTypeface.getFont());
+        if (metrics == null) {
+            return m.getLeading();
+        }
         metrics.top = m.getMaxDescent();
         metrics.ascent = m.getAscent();
         metrics.descent = m.getDescent();
@@ -993,22 +1000,7 @@ public class Paint {
         if (text.length == 0 || count == 0) {
             return 0f;
         }
-        int oldFlag = getFlags();
-        setFlags(getFlags() | (TEXT_RUN_FLAG_LEFT_EDGE | TEXT_RUN_FLAG_RIGHT_EDGE));
-        try {
-
-            if (!mHasCompatScaling) {
-                throw new RuntimeException("Stub!");
-            }
-
-            final float oldSize = getTextSize();
-            setTextSize(oldSize * mCompatScaling);
-            throw new RuntimeException("Stub!");
-            // setTextSize(oldSize);
-            // return (float) Math.ceil(w * mInvCompatScaling);
-        } finally {
-            setFlags(oldFlag);
-        }
+        return measureRun(new String(text, index, count));
     }
 
     public float measureText(String text, int start, int end) {
@@ -1022,20 +1014,24 @@ public class Paint {
         if (text.length() == 0 || start == end) {
             return 0f;
         }
-        int oldFlag = getFlags();
-        setFlags(getFlags() | (TEXT_RUN_FLAG_LEFT_EDGE | TEXT_RUN_FLAG_RIGHT_EDGE));
-        try {
-            if (!mHasCompatScaling) {
-                throw new RuntimeException("Stub!");
-            }
-            final float oldSize = getTextSize();
-            setTextSize(oldSize * mCompatScaling);
-            throw new RuntimeException("Stub!");
-            // setTextSize(oldSize);
-            // return (float) Math.ceil(w * mInvCompatScaling);
-        } finally {
-            setFlags(oldFlag);
+        return measureRun(text.substring(start, end));
+    }
+
+    private float measureRun(String run) {
+        if (!mHasCompatScaling) {
+            return TextMetricsCache.getRun(mTypeface, run).getAdvance();
+        }
+        float w = TextMetricsCache.getRun(getScaledTypeface(), run).getAdvance();
+        return (float) Math.ceil(w * mInvCompatScaling);
+    }
+
+    private Typeface getScaledTypeface() {
+        if (mScaledTypeface == null || mScaledTypefaceSource != mTypeface || mScaledTypefaceScaling != mCompatScaling) {
+            mScaledTypeface = mTypeface.deriveFont(getTextSize() * mCompatScaling);
+            mScaledTypefaceSource = mTypeface;
+            mScaledTypefaceScaling = mCompatScaling;
         }
+        return mScaledTypeface;
     }
 
     public float measureText(String text) {
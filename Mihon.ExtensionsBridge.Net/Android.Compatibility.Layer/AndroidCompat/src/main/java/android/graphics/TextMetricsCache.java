@@ -0,0 +1,123 @@
+package android.graphics;
+
+import android.util.LruCache;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.font.TextLayout;
+import java.awt.image.BufferedImage;
+import java.text.AttributedString;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Shared font metrics and text run measurements for {@link Paint} and {@link Canvas}.
+ *
+ * AWT derives a new Font for every size/attribute change, so a Typeface's Font identifies family,
+ * style and size. Runs are keyed on it and the fallback fonts, which decide how the text is laid out.
+ *
+ * @hide
+ */
+final class TextMetricsCache {
+    /** Antialiased, fractional metrics context used for every measurement. */
+    static final FontRenderContext FONT_RENDER_CONTEXT = new FontRenderContext(null, true, true);
+
+    private static final int MAX_RUNS = 1024;
+    private static final int MAX_FONT_METRICS = 64;
+
+    // Only used to resolve java.awt.FontMetrics, which needs a Graphics (or a Component) to hand them out
+    private static final Graphics2D sMetricsGraphics =
+            new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).createGraphics();
+
+    private static final LruCache<Font, java.awt.FontMetrics> sFontMetrics =
+            new LruCache<Font, java.awt.FontMetrics>(MAX_FONT_METRICS) {
+                @Override
+                protected java.awt.FontMetrics create(Font font) {
+                    synchronized (sMetricsGraphics) {
+                        return sMetricsGraphics.getFontMetrics(font);
+                    }
+                }
+            };
+
+    private static final LruCache<RunKey, TextRun> sRuns = new LruCache<RunKey, TextRun>(MAX_RUNS) {
+        @Override
+        protected TextRun create(RunKey key) {
+            return new TextRun(key.typeface, key.text);
+        }
+    };
+
+    private TextMetricsCache() {
+    }
+
+    static java.awt.FontMetrics getFontMetrics(Font font) {
+        return sFontMetrics.get(font);
+    }
+
+    static TextRun getRun(Typeface typeface, String text) {
+        return sRuns.get(new RunKey(typeface, text));
+    }
+
+    static final class TextRun {
+        private final Typeface mTypeface;
+        private final String mText;
+        private final AttributedString mFallbackText;
+        private final float mAdvance;
+        private volatile GlyphVector mGlyphs;
+
+        private TextRun(Typeface typeface, String text) {
+            mTypeface = typeface;
+            mText = text;
+            mFallbackText = typeface.createWithFallback(text);
+            mAdvance = text.isEmpty()
+                    ? 0f
+                    : new TextLayout(mFallbackText.getIterator(), FONT_RENDER_CONTEXT).getAdvance();
+        }
+
+        /** Text with fallback fonts applied; callers must only read it. */
+        AttributedString getFallbackText() {
+            return mFallbackText;
+        }
+
+        float getAdvance() {
+            return mAdvance;
+        }
+
+        GlyphVector getGlyphs() {
+            GlyphVector glyphs = mGlyphs;
+            if (glyphs == null) {
+                glyphs = mTypeface.getFont().createGlyphVector(FONT_RENDER_CONTEXT, mText);
+                mGlyphs = glyphs;
+            }
+            return glyphs;
+        }
+    }
+
+    private static final class RunKey {
+        final Typeface typeface;
+        final String text;
+        // Typeface.equals only compares the main font
+        final Font font;
+        final List<Font> fallbackFonts;
+
+        RunKey(Typeface typeface, String text) {
+            this.typeface = typeface;
+            this.text = text;
+            this.font = typeface.getFont();
+            this.fallbackFonts = typeface.getFallbackFonts();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof RunKey)) return false;
+            RunKey that = (RunKey) o;
+            return font.equals(that.font) && fallbackFonts.equals(that.fallbackFonts) && text.equals(that.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(font, fallbackFonts, text);
+        }
+    }
+}
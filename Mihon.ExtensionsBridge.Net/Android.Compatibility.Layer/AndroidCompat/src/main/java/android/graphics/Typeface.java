@@ -32,12 +32,10 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.text.AttributedString;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
-import java.util.stream.Stream;
 import java.util.stream.Collectors;
 import android.annotation.NonNull;
 
@@ -70,12 +68,14 @@ public class Typeface {
 
     public static final String DEFAULT_FAMILY = "sans-serif";
 
-    private final Font mFont;
-    private final List<Font> mFallbackFonts;
+    // Bundled families are resolved through FontRegistry on first use
+    private volatile Font mFont;
+    private List<Font> mFallbackFonts;
+    private FontRegistry.Family mFamily;
 
     /** Returns the typeface's weight value */
     public int getWeight() {
-        Map<TextAttribute, Object> atts = (Map<TextAttribute, Object>) mFont.getAttributes();
+        Map<TextAttribute, Object> atts = (Map<TextAttribute, Object>) getFont().getAttributes();
         Object weight = atts.getOrDefault(TextAttribute.WEIGHT, TextAttribute.WEIGHT_REGULAR);
         if (weight instanceof Float) {
             float w = ((Float) weight).floatValue();
@@ -86,7 +86,7 @@ public class Typeface {
     }
 
     public float getJavaWeight() {
-        Map<TextAttribute, Object> atts = (Map<TextAttribute, Object>) mFont.getAttributes();
+        Map<TextAttribute, Object> atts = (Map<TextAttribute, Object>) getFont().getAttributes();
         Object weight = atts.getOrDefault(TextAttribute.WEIGHT, TextAttribute.WEIGHT_REGULAR);
         if (weight instanceof Float) {
             return ((Float) weight).floatValue();
@@ -104,16 +104,16 @@ public class Typeface {
 
     /** Returns true if getStyle() has the BOLD bit set. */
     public final boolean isBold() {
-        return mFont.isBold();
+        return getFont().isBold();
     }
 
     /** Returns true if getStyle() has the ITALIC bit set. */
     public final boolean isItalic() {
-        return mFont.isItalic();
+        return getFont().isItalic();
     }
 
     public final @Nullable String getSystemFontFamilyName() {
-        return mFont.getFamily();
+        return getFont().getFamily();
     }
 
     public static Typeface findFromCache(AssetManager mgr, String path) {
@@ -239,8 +239,15 @@ public class Typeface {
         if (family == null) {
             family = getSystemDefaultTypeface(DEFAULT_FAMILY);
         }
+        if (family.getStyle() == style) {
+            return family;
+        }
+        if (family == DEFAULT && style == BOLD) {
+            return DEFAULT_BOLD;
+        }
 
-        throw new RuntimeException("Stub!");
+        // AWT and Android share the bit layout of PLAIN/BOLD/ITALIC
+        return family.deriveFont(style, family.getFont().getSize2D());
     }
 
     public static @NonNull Typeface create(@Nullable Typeface family,
@@ -258,7 +265,7 @@ public class Typeface {
     }
 
     public static Typeface defaultFromStyle(@Style int style) {
-        throw new RuntimeException("Stub!");
+        return create(DEFAULT, style);
     }
 
     public static Typeface createFromAsset(AssetManager mgr, String path) {
@@ -286,55 +293,61 @@ public class Typeface {
         mFallbackFonts = fallbackFonts;
     }
 
+    private Typeface(FontRegistry.Family family) {
+        mFamily = family;
+    }
+
     public Map<TextAttribute, Object> getAttributes() {
-        return (Map<TextAttribute, Object>) mFont.getAttributes();
+        return (Map<TextAttribute, Object>) getFont().getAttributes();
     }
 
     public Typeface deriveFont(Map<TextAttribute, Object> attributes) {
-        Font mainFont = mFont.deriveFont(attributes);
-        List<Font> fallbacks = mFallbackFonts.stream().map(font -> font.deriveFont(attributes))
+        Font mainFont = getFont().deriveFont(attributes);
+        List<Font> fallbacks = getFallbackFonts().stream().map(font -> font.deriveFont(attributes))
             .collect(Collectors.toList());
         return new Typeface(mainFont, fallbacks);
     }
 
     public Typeface deriveFont(float size) {
-        Font mainFont = mFont.deriveFont(size);
-        List<Font> fallbacks = mFallbackFonts.stream().map(font -> font.deriveFont(size))
+        Font mainFont = getFont().deriveFont(size);
+        List<Font> fallbacks = getFallbackFonts().stream().map(font -> font.deriveFont(size))
             .collect(Collectors.toList());
         return new Typeface(mainFont, fallbacks);
     }
 
     public Typeface deriveFont(int style, float size) {
-        Font mainFont = mFont.deriveFont(style, size);
-        List<Font> fallbacks = mFallbackFonts.stream().map(font -> font.deriveFont(style, size))
+        Font mainFont = getFont().deriveFont(style, size);
+        List<Font> fallbacks = getFallbackFonts().stream().map(font -> font.deriveFont(style, size))
             .collect(Collectors.toList());
         return new Typeface(mainFont, fallbacks);
     }
 
     public AttributedString createWithFallback(String text) {
+        Font font = getFont();
+        List<Font> fallbackFonts = getFallbackFonts();
         AttributedString result = new AttributedString(text);
 
         int textLength = text.length();
-        result.addAttribute(TextAttribute.FONT, mFont, 0, textLength);
+        result.addAttribute(TextAttribute.FONT, font, 0, textLength);
 
         int i = 0;
         while (true) {
-            int until = mFont.canDisplayUpTo(result.getIterator(), i, textLength);
+            int until = font.canDisplayUpTo(result.getIterator(), i, textLength);
             if (until == -1) break;
 
             boolean found = false;
             // find a fallback font from `until`
-            for (int j = 0; j < mFallbackFonts.size(); ++j) {
+            for (int j = 0; j < fallbackFonts.size(); ++j) {
                 int fallbackUntil = until;
                 for (; fallbackUntil < textLength; ++fallbackUntil) {
-                    if (mFont.canDisplay(text.charAt(fallbackUntil)) || !mFallbackFonts.get(j).canDisplay(text.charAt(fallbackUntil)))
+                    if (font.canDisplay(text.charAt(fallbackUntil)) || !fallbackFonts.get(j).canDisplay(text.charAt(fallbackUntil)))
                         break;
                 }
                 if (fallbackUntil > until) {
                     // use this and advance
                     int end = fallbackUntil >= 0 ? fallbackUntil : textLength;
-                    result.addAttribute(TextAttribute.FONT, mFallbackFonts.get(j), until, end);
-                    Log.v(TAG, String.format("Fallback: from %d to %d using %s", until, end, mFallbackFonts.get(j).getName()));
+                    result.addAttribute(TextAttribute.FONT, fallbackFonts.get(j), until, end);
+                    Log.v(TAG, String.format("Fallback: from %d to %d using %s", until, end, fallbackFonts.get(j).getName()));
                     i = end;
                     found = true;
                     break;
@@ -370,12 +383,32 @@ public class Typeface {
         return createFromFile(new File(path));
     }
 
-    private static Typeface getSystemDefaultTypeface(@NonNull String familyName) {
-        return new Typeface(new Font(familyName, 0, 12));
+    private static Typeface getSystemDefaultTypeface(@Nullable String familyName) {
+        if (familyName == null || DEFAULT_FAMILY.equals(familyName)) return DEFAULT;
+        if ("serif".equals(familyName)) return SERIF;
+        if ("monospace".equals(familyName)) return MONOSPACE;
+        return new Typeface(FontRegistry.getSystemFont(familyName));
     }
 
     public Font getFont() {
-        return mFont;
+        Font font = mFont;
+        if (font == null) {
+            synchronized (this) {
+                font = mFont;
+                if (font == null) {
+                    mFallbackFonts = mFamily.resolveFallbacks();
+                    font = mFamily.resolveMain();
+                    mFamily = null;
+                    mFont = font;
+                }
+            }
+        }
+        return font;
+    }
+
+    List<Font> getFallbackFonts() {
+        getFont();
+        return mFallbackFonts;
     }
 
     @Override
@@ -385,38 +418,25 @@ public class Typeface {
 
         Typeface typeface = (Typeface) o;
 
-        return typeface.mFont.equals(mFont);
+        return typeface.getFont().equals(getFont());
     }
 
     @Override
     public int hashCode() {
-        return mFont.hashCode();
-    }
-
-    private static Font loadFontAsset(String font) {
-        try (InputStream defaultNormalStream = ClassLoader.getSystemClassLoader().getResourceAsStream("font/" + font)) {
-            return Font.createFont(Font.TRUETYPE_FONT, defaultNormalStream).deriveFont(12.0f);
-        } catch (Exception ex) {
-            Log.e(TAG, "Failed to load " + font, ex);
-            return null;
-        }
+        return getFont().hashCode();
     }
 
-    private static Typeface withFallback(Font baseFallback, String mainFont, String... fonts) {
-        Font main = loadFontAsset(mainFont);
-        if (main == null) main = new Font(null, 0, 12);
-        List<Font> fallbacks = Stream.concat(Arrays.stream(fonts).map(Typeface::loadFontAsset).filter(f -> f != null), Stream.of(baseFallback))
-            .collect(Collectors.toList());
-        Log.v(TAG, String.format("Loaded font %s with %d fallback fonts", main.getName(), fallbacks.size()));
-        return new Typeface(main, fallbacks);
+    private static Typeface bundled(String systemFallback, int style, String mainFont) {
+        return new Typeface(new FontRegistry.Family(systemFallback, style, mainFont,
+            "NotoSans/NotoSansSymbols2-Regular.ttf", "NotoSans/NotoEmoji-VariableFont_wght.ttf"));
     }
 
     static {
-        DEFAULT = withFallback(new Font(null, 0, 12), "NotoSans/NotoSans-VariableFont_wdth,wght.ttf",  "NotoSans/NotoSansSymbols2-Regular.ttf", "NotoSans/NotoEmoji-VariableFont_wght.ttf");
-        DEFAULT_BOLD = DEFAULT.deriveFont(Font.BOLD);
+        DEFAULT = bundled(null, Font.PLAIN, "NotoSans/NotoSans-VariableFont_wdth,wght.ttf");
+        DEFAULT_BOLD = bundled(null, Font.BOLD, "NotoSans/NotoSans-VariableFont_wdth,wght.ttf");
         SANS_SERIF = DEFAULT;
-        SERIF = withFallback(new Font(Font.SERIF, 0, 12), "NotoSans/NotoSerif-VariableFont_wdth,wght.ttf",  "NotoSans/NotoSansSymbols2-Regular.ttf", "NotoSans/NotoEmoji-VariableFont_wght.ttf");
-        MONOSPACE = withFallback(new Font(Font.MONOSPACED, 0, 12), "NotoSans/NotoSansMono-VariableFont_wdth,wght.ttf",  "NotoSans/NotoSansSymbols2-Regular.ttf", "NotoSans/NotoEmoji-VariableFont_wght.ttf");
+        SERIF = bundled(Font.SERIF, Font.PLAIN, "NotoSans/NotoSerif-VariableFont_wdth,wght.ttf");
+        MONOSPACE = bundled(Font.MONOSPACED, Font.PLAIN, "NotoSans/NotoSansMono-VariableFont_wdth,wght.ttf");
     }
 }
 
@@ -87,6 +87,8 @@ import org.cef.network.CefPostDataElement
 import org.cef.network.CefRequest
 import org.cef.network.CefResponse
 import org.koin.mp.KoinPlatformTools
+import okio.Buffer
+import okio.source
 import extension.bridge.cef.CefAppBridge
 import java.awt.Canvas as AwtCanvas
 import java.awt.Rectangle
@@ -102,12 +104,14 @@ import java.io.File
 import java.io.IOException
 import java.io.InputStream
 import java.lang.reflect.Method
+import java.net.URI
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.nio.charset.StandardCharsets
 import java.util.Base64
 import java.util.Locale
 import java.util.UUID
+import java.util.Vector
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executor
 import java.util.function.Consumer
@@ -653,6 +657,58 @@ class KcefWebViewProvider(
         }
     }
 
+    /** Receives a [WebViewBodyChannel] upload and answers it without touching the network. */
+    private inner class BodyUploadResourceHandler(
+        val id: String,
+    ) : ArrayResponseResourceHandler() {
+        private var accepted = false
+
+        override fun processRequest(
+            request: CefRequest,
+            callback: CefCallback,
+        ): Boolean {
+            val body = Buffer()
+            try {
+                request.postData?.readInto(body)
+                accepted = WebViewBodyChannel.accept(id, body)
+                Log.v(TAG, "Received ${body.size} byte upload for $id")
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to read upload for $id", e)
+            }
+            resolvedData = ByteArray(0)
+            callback.Continue()
+            return true
+        }
+
+        override fun getResponseHeaders(
+            response: CefResponse,
+            responseLength: IntRef,
+            redirectUrl: StringRef,
+        ) {
+            super.getResponseHeaders(response, responseLength, redirectUrl)
+            response.status = if (accepted) 204 else 403
+            response.statusText = httpStatusText(response.status)
+        }
+
+        private fun CefPostData.readInto(sink: Buffer) {
+            val elements = Vector<CefPostDataElement>()
+            getElements(elements)
+            for (element in elements) {
+                when (element.type) {
+                    CefPostDataElement.Type.PDE_TYPE_BYTES -> {
+                        val bytes = ByteArray(element.bytesCount)
+                        element.getBytes(bytes.size, bytes)
+                        sink.write(bytes)
+                    }
+                    // Chromium spools large uploads to disk
+                    CefPostDataElement.Type.PDE_TYPE_FILE ->
+                        File(element.file).source().use { sink.writeAll(it) }
+                    else -> Unit
+                }
+            }
+        }
+    }
+
     private inner class HtmlResponseResourceHandler(
         val html: String,
     ) : ArrayResponseResourceHandler() {
@@ -673,6 +729,9 @@ class KcefWebViewProvider(
             frame: CefFrame?,
             request: CefRequest,
         ): Boolean {
+            // Internal uploads are answered locally, keep them away from the client callbacks
+            if (request.bodyChannelId() != null) return false
+
             initialRequestData?.apply(request)
             initialRequestData = null
             request.setHeaderByName("user-agent", settings.userAgentString, true)
@@ -694,6 +753,8 @@ class KcefWebViewProvider(
             frame: CefFrame,
             request: CefRequest,
         ): CefResourceHandler? {
+            request.bodyChannelId()?.let { return BodyUploadResourceHandler(it) }
+
             val isInitialLoad = frame.url.isEmpty() && request.method == "GET"
             Log.v(TAG, "Request ${request.method} ${request.url} is initial? $isInitialLoad")
             val response =
@@ -715,6 +776,12 @@ class KcefWebViewProvider(
         }
     }
 
+    private fun CefRequest.bodyChannelId(): String? {
+        if (method != "POST") return null
+        val path = runCatching { URI(url).rawPath }.getOrNull()
+        return WebViewBodyChannel.idOf(path)
+    }
+
     private inner class RequestHandler : CefRequestHandlerAdapter() {
         override fun getResourceRequestHandler(
             browser: CefBrowser,
@@ -0,0 +1,57 @@
+package xyz.nulldev.androidcompat.webkit
+
+import android.util.Log
+import okio.Buffer
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Binary side channel from page scripts to Kotlin.
+ *
+ * The JavaScript bridge only carries strings, so large payloads (e.g. response bodies read by a
+ * script) would have to be base64 encoded on the page and decoded again here. Instead, a script can
+ * `POST` the raw bytes to `location.origin + PATH + id` for an id that was [open]ed beforehand: the
+ * request never reaches the network, [KcefWebViewProvider] copies its upload data into a [Buffer]
+ * and answers `204`, and the bytes can then be picked up with [take].
+ *
+ * Uploads for ids that were not opened are rejected, so pages can't park data here on their own.
+ */
+object WebViewBodyChannel {
+    private const val TAG = "WebViewBodyChannel"
+
+    const val PATH = "/__androidcompat_body/"
+
+    private val expected = ConcurrentHashMap.newKeySet<String>()
+    private val bodies = ConcurrentHashMap<String, Buffer>()
+
+    /** Allows one upload for [id]. Must be paired with [take]. */
+    fun open(id: String) {
+        expected.add(id)
+    }
+
+    /** Returns and forgets the body uploaded for [id], or null if nothing arrived. */
+    fun take(id: String): Buffer? {
+        expected.remove(id)
+        return bodies.remove(id)
+    }
+
+    /** Returns the channel id addressed by [path], or null if it isn't a channel URL. */
+    internal fun idOf(path: String?): String? =
+        path?.takeIf { it.startsWith(PATH) }?.substring(PATH.length)?.takeIf { it.isNotEmpty() }
+
+    /**
+     * Stores the upload for [id] if it is expected.
+     *
+     * @return false if [id] was never opened or already received its body
+     */
+    internal fun accept(
+        id: String,
+        body: Buffer,
+    ): Boolean {
+        if (!expected.remove(id)) {
+            Log.w(TAG, "Rejecting unexpected upload for $id")
+            return false
+        }
+        bodies[id] = body
+        return true
+    }
+}
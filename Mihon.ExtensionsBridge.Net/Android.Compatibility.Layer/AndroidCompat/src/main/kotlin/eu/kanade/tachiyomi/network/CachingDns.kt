@@ -0,0 +1,113 @@
+package eu.kanade.tachiyomi.network
+
+import eu.kanade.tachiyomi.util.lang.launchIO
+import extension.bridge.logging.androidCompatLogger
+import okhttp3.Dns
+import java.net.InetAddress
+import java.net.UnknownHostException
+import java.security.Security
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+/**
+ * In-memory DNS cache in front of [delegate] (the system resolver or a DoH provider).
+ *
+ * Answers are kept for [ttlMillis] and failures for [negativeTtlMillis]; by default these follow the JVM's
+ * `networkaddress.cache.ttl` and `networkaddress.cache.negative.ttl` security properties, since [Dns] does
+ * not expose record TTLs. Concurrent lookups of the same host share one resolution.
+ */
+class CachingDns(
+    @Volatile var delegate: Dns = Dns.SYSTEM,
+    private val ttlMillis: Long = securityTtlMillis("networkaddress.cache.ttl", DEFAULT_TTL_SECONDS),
+    private val negativeTtlMillis: Long = securityTtlMillis("networkaddress.cache.negative.ttl", DEFAULT_NEGATIVE_TTL_SECONDS),
+    private val clock: () -> Long = System::currentTimeMillis,
+) : Dns {
+    private val logger = androidCompatLogger(CachingDns::class.java)
+
+    private class Entry(
+        val addresses: List<InetAddress>,
+        val error: UnknownHostException?,
+        val expiresAt: Long,
+    )
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+    private val lookups = ConcurrentHashMap<String, CompletableFuture<Entry>>()
+
+    override fun lookup(hostname: String): List<InetAddress> {
+        val host = hostname.lowercase()
+        val entry = entries[host]?.takeIf { clock() < it.expiresAt } ?: resolve(host)
+        entry.error?.let { throw UnknownHostException(it.message).apply { initCause(it) } }
+        return entry.addresses
+    }
+
+    /** Resolves [hosts] in the background so the first connection to them doesn't wait on DNS. */
+    fun prefetch(hosts: Collection<String>) {
+        val pending =
+            hosts
+                .map { it.lowercase() }
+                .distinct()
+                .filter { host -> entries[host].let { it == null || clock() >= it.expiresAt } }
+        if (pending.isEmpty()) return
+        launchIO {
+            pending.forEach { host ->
+                val error =
+                    try {
+                        resolve(host).error
+                    } catch (e: Exception) {
+                        e
+                    }
+                error?.let { logger.debug { "Prefetching $host failed: ${it.message}" } }
+            }
+        }
+    }
+
+    fun clear() {
+        entries.clear()
+    }
+
+    private fun resolve(host: String): Entry {
+        val future = CompletableFuture<Entry>()
+        val existing = lookups.putIfAbsent(host, future)
+        if (existing != null) {
+            return try {
+                existing.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+
+        try {
+            val entry =
+                try {
+                    Entry(delegate.lookup(host), null, clock() + ttlMillis)
+                } catch (e: UnknownHostException) {
+                    Entry(emptyList(), e, clock() + negativeTtlMillis)
+                }
+            entries[host] = entry
+            future.complete(entry)
+            return entry
+        } catch (e: Throwable) {
+            // Not a resolution failure (e.g. DoH transport error), don't cache it
+            future.completeExceptionally(e)
+            throw e
+        } finally {
+            lookups.remove(host, future)
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_TTL_SECONDS = 60L
+        private const val DEFAULT_NEGATIVE_TTL_SECONDS = 10L
+
+        private fun securityTtlMillis(
+            property: String,
+            defaultSeconds: Long,
+        ): Long {
+            // Negative values mean "forever" to the JVM, which we don't want for a long running host
+            val seconds = Security.getProperty(property)?.trim()?.toLongOrNull()?.takeIf { it >= 0 } ?: defaultSeconds
+            return TimeUnit.SECONDS.toMillis(seconds)
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package eu.kanade.tachiyomi.network
+
+import extension.bridge.tracing.TraceSpan
+import extension.bridge.tracing.Tracing
+import okhttp3.Call
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.Interceptor
+import okhttp3.Protocol
+import okhttp3.Response
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Gives every OkHttp call a [Tracing] span below the span that was current when the call was created, with
+ * child spans for DNS, connecting, the TLS handshake and waiting on the server.
+ *
+ * Installed both as event listener, which sees the creating thread, and as the first application interceptor,
+ * which makes the call's span current for the interceptors that run on the dispatcher thread.
+ */
+class CallTracing :
+    Interceptor,
+    EventListener.Factory {
+    // Only calls that started and haven't ended yet
+    private val spans = ConcurrentHashMap<Call, TraceSpan>()
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val span = spans[chain.call()] ?: return chain.proceed(chain.request())
+        val previous = Tracing.enter(span)
+        try {
+            return chain.proceed(chain.request())
+        } finally {
+            Tracing.exit(previous)
+        }
+    }
+
+    override fun create(call: Call): EventListener {
+        if (!Tracing.enabled) return EventListener.NONE
+        return CallListener(Tracing.current())
+    }
+
+    private inner class CallListener(
+        private val parent: TraceSpan?,
+    ) : EventListener() {
+        // Events of one call are delivered sequentially
+        private var span: TraceSpan? = null
+        private var dns: TraceSpan? = null
+        private var connect: TraceSpan? = null
+        private var tls: TraceSpan? = null
+        private var server: TraceSpan? = null
+
+        private fun child(name: String): TraceSpan? = span?.let { Tracing.start(name, it) }
+
+        override fun callStart(call: Call) {
+            val span = Tracing.start("call", parent) ?: return
+            span.setAttribute("method", call.request().method)
+            span.setAttribute("url", call.request().url)
+            call.request().sourceMetadata()?.let { span.setAttribute("source", it.sourceName) }
+            this.span = span
+            spans[call] = span
+        }
+
+        override fun dnsStart(
+            call: Call,
+            domainName: String,
+        ) {
+            dns = child("dns")
+        }
+
+        override fun dnsEnd(
+            call: Call,
+            domainName: String,
+            inetAddressList: List<InetAddress>,
+        ) {
+            dns?.end()
+        }
+
+        override fun connectStart(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+        ) {
+            connect = child("connect")
+        }
+
+        override fun secureConnectStart(call: Call) {
+            tls = connect?.let { Tracing.start("tls", it) }
+        }
+
+        override fun secureConnectEnd(
+            call: Call,
+            handshake: Handshake?,
+        ) {
+            tls?.end()
+        }
+
+        override fun connectEnd(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+            protocol: Protocol?,
+        ) {
+            connect?.setAttribute("protocol", protocol)
+            connect?.end()
+        }
+
+        override fun connectFailed(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+            protocol: Protocol?,
+            ioe: IOException,
+        ) {
+            tls?.end(ioe)
+            connect?.end(ioe)
+        }
+
+        override fun requestHeadersStart(call: Call) {
+            server = child("server")
+        }
+
+        override fun responseHeadersEnd(
+            call: Call,
+            response: Response,
+        ) {
+            server?.setAttribute("status", response.code)
+            server?.end()
+        }
+
+        override fun cacheHit(
+            call: Call,
+            cachedResponse: Response,
+        ) {
+            span?.setAttribute("cache", "hit")
+        }
+
+        override fun callEnd(call: Call) {
+            spans.remove(call)
+            span?.end()
+        }
+
+        override fun callFailed(
+            call: Call,
+            ioe: IOException,
+        ) {
+            spans.remove(call)
+            server?.end(ioe)
+            span?.end(ioe)
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package eu.kanade.tachiyomi.network
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.HttpUrl
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+
+/**
+ * Lets several [EventListener.Factory]s observe the same clients, OkHttp only takes one.
+ */
+internal class CompositeEventListenerFactory(
+    private vararg val factories: EventListener.Factory,
+) : EventListener.Factory {
+    override fun create(call: Call): EventListener = CompositeEventListener(factories.map { it.create(call) })
+}
+
+private class CompositeEventListener(
+    private val listeners: List<EventListener>,
+) : EventListener() {
+    override fun callStart(call: Call) = listeners.forEach { it.callStart(call) }
+
+    override fun proxySelectStart(
+        call: Call,
+        url: HttpUrl,
+    ) = listeners.forEach { it.proxySelectStart(call, url) }
+
+    override fun proxySelectEnd(
+        call: Call,
+        url: HttpUrl,
+        proxies: List<Proxy>,
+    ) = listeners.forEach { it.proxySelectEnd(call, url, proxies) }
+
+    override fun dnsStart(
+        call: Call,
+        domainName: String,
+    ) = listeners.forEach { it.dnsStart(call, domainName) }
+
+    override fun dnsEnd(
+        call: Call,
+        domainName: String,
+        inetAddressList: List<InetAddress>,
+    ) = listeners.forEach { it.dnsEnd(call, domainName, inetAddressList) }
+
+    override fun connectStart(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+    ) = listeners.forEach { it.connectStart(call, inetSocketAddress, proxy) }
+
+    override fun secureConnectStart(call: Call) = listeners.forEach { it.secureConnectStart(call) }
+
+    override fun secureConnectEnd(
+        call: Call,
+        handshake: Handshake?,
+    ) = listeners.forEach { it.secureConnectEnd(call, handshake) }
+
+    override fun connectEnd(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+        protocol: Protocol?,
+    ) = listeners.forEach { it.connectEnd(call, inetSocketAddress, proxy, protocol) }
+
+    override fun connectFailed(
+        call: Call,
+        inetSocketAddress: InetSocketAddress,
+        proxy: Proxy,
+        protocol: Protocol?,
+        ioe: IOException,
+    ) = listeners.forEach { it.connectFailed(call, inetSocketAddress, proxy, protocol, ioe) }
+
+    override fun connectionAcquired(
+        call: Call,
+        connection: Connection,
+    ) = listeners.forEach { it.connectionAcquired(call, connection) }
+
+    override fun connectionReleased(
+        call: Call,
+        connection: Connection,
+    ) = listeners.forEach { it.connectionReleased(call, connection) }
+
+    override fun requestHeadersStart(call: Call) = listeners.forEach { it.requestHeadersStart(call) }
+
+    override fun requestHeadersEnd(
+        call: Call,
+        request: Request,
+    ) = listeners.forEach { it.requestHeadersEnd(call, request) }
+
+    override fun requestBodyStart(call: Call) = listeners.forEach { it.requestBodyStart(call) }
+
+    override fun requestBodyEnd(
+        call: Call,
+        byteCount: Long,
+    ) = listeners.forEach { it.requestBodyEnd(call, byteCount) }
+
+    override fun requestFailed(
+        call: Call,
+        ioe: IOException,
+    ) = listeners.forEach { it.requestFailed(call, ioe) }
+
+    override fun responseHeadersStart(call: Call) = listeners.forEach { it.responseHeadersStart(call) }
+
+    override fun responseHeadersEnd(
+        call: Call,
+        response: Response,
+    ) = listeners.forEach { it.responseHeadersEnd(call, response) }
+
+    override fun responseBodyStart(call: Call) = listeners.forEach { it.responseBodyStart(call) }
+
+    override fun responseBodyEnd(
+        call: Call,
+        byteCount: Long,
+    ) = listeners.forEach { it.responseBodyEnd(call, byteCount) }
+
+    override fun responseFailed(
+        call: Call,
+        ioe: IOException,
+    ) = listeners.forEach { it.responseFailed(call, ioe) }
+
+    override fun callEnd(call: Call) = listeners.forEach { it.callEnd(call) }
+
+    override fun callFailed(
+        call: Call,
+        ioe: IOException,
+    ) = listeners.forEach { it.callFailed(call, ioe) }
+
+    override fun canceled(call: Call) = listeners.forEach { it.canceled(call) }
+
+    override fun satisfactionFailure(
+        call: Call,
+        response: Response,
+    ) = listeners.forEach { it.satisfactionFailure(call, response) }
+
+    override fun cacheHit(
+        call: Call,
+        cachedResponse: Response,
+    ) = listeners.forEach { it.cacheHit(call, cachedResponse) }
+
+    override fun cacheMiss(call: Call) = listeners.forEach { it.cacheMiss(call) }
+
+    override fun cacheConditionalHit(
+        call: Call,
+        cachedResponseWithNoBody: Response,
+    ) = listeners.forEach { it.cacheConditionalHit(call, cachedResponseWithNoBody) }
+}
@@ -0,0 +1,107 @@
+package eu.kanade.tachiyomi.network
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import okhttp3.Protocol
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Per host connection counters, showing whether requests reuse pooled connections and which protocol
+ * was negotiated.
+ */
+data class HostConnectionStats(
+    val host: String,
+    /** Connections that had to be established, including the TLS handshake. */
+    val connectionsOpened: Long,
+    /** Requests served by an already open connection. */
+    val connectionsReused: Long,
+    val http2Requests: Long,
+    val http1Requests: Long,
+    val averageConnectMillis: Double,
+) {
+    val reuseRate: Double
+        get() =
+            if (connectionsOpened + connectionsReused == 0L) {
+                0.0
+            } else {
+                connectionsReused.toDouble() / (connectionsOpened + connectionsReused)
+            }
+}
+
+/**
+ * Collects [HostConnectionStats] for every call of the clients it is installed on.
+ */
+class ConnectionStatsListener : EventListener.Factory {
+    private class Counters {
+        val opened = AtomicLong()
+        val reused = AtomicLong()
+        val http2 = AtomicLong()
+        val http1 = AtomicLong()
+        val connectNanos = AtomicLong()
+    }
+
+    private val hosts = ConcurrentHashMap<String, Counters>()
+
+    fun stats(): List<HostConnectionStats> =
+        hosts.map { (host, counters) ->
+            val opened = counters.opened.get()
+            HostConnectionStats(
+                host = host,
+                connectionsOpened = opened,
+                connectionsReused = counters.reused.get(),
+                http2Requests = counters.http2.get(),
+                http1Requests = counters.http1.get(),
+                averageConnectMillis = if (opened == 0L) 0.0 else counters.connectNanos.get() / opened / 1_000_000.0,
+            )
+        }
+
+    fun stats(host: String): HostConnectionStats? = stats().firstOrNull { it.host == host }
+
+    override fun create(call: Call): EventListener = CallListener()
+
+    private fun counters(call: Call): Counters = hosts.getOrPut(call.request().url.host) { Counters() }
+
+    private inner class CallListener : EventListener() {
+        // Events of one call are delivered sequentially
+        private var connectStart = 0L
+        private var opened = false
+
+        override fun connectStart(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+        ) {
+            connectStart = System.nanoTime()
+        }
+
+        override fun connectEnd(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+            protocol: Protocol?,
+        ) {
+            opened = true
+            val counters = counters(call)
+            counters.opened.incrementAndGet()
+            counters.connectNanos.addAndGet(System.nanoTime() - connectStart)
+        }
+
+        override fun connectionAcquired(
+            call: Call,
+            connection: Connection,
+        ) {
+            val counters = counters(call)
+            if (!opened) counters.reused.incrementAndGet()
+            when (connection.protocol()) {
+                Protocol.HTTP_2, Protocol.H2_PRIOR_KNOWLEDGE -> counters.http2.incrementAndGet()
+                else -> counters.http1.incrementAndGet()
+            }
+            // Follow-ups of this call (redirects, retries) acquire a connection again
+            opened = false
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package eu.kanade.tachiyomi.network
+
+import okhttp3.Dns
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.OkHttpClient
+import okhttp3.dnsoverhttps.DnsOverHttps
+import java.net.InetAddress
+
+/**
+ * Based on https://github.com/mihonapp/mihon/blob/main/core/common/src/main/kotlin/eu/kanade/tachiyomi/network/DohProviders.kt
+ */
+const val PREF_DOH_CLOUDFLARE = 1
+const val PREF_DOH_GOOGLE = 2
+const val PREF_DOH_ADGUARD = 3
+const val PREF_DOH_QUAD9 = 4
+const val PREF_DOH_ALIDNS = 5
+const val PREF_DOH_DNSPOD = 6
+const val PREF_DOH_360 = 7
+const val PREF_DOH_QUAD101 = 8
+const val PREF_DOH_MULLVAD = 9
+const val PREF_DOH_CONTROLD = 10
+const val PREF_DOH_NJALLA = 11
+const val PREF_DOH_SHECAN = 12
+
+/**
+ * Returns the DNS-over-HTTPS resolver for [provider] (one of the `PREF_DOH_*` values), or null to use the
+ * system resolver. [client] is used to reach the DoH endpoint and must not resolve through the result.
+ */
+fun dohProviderDns(
+    provider: Int,
+    client: OkHttpClient,
+): Dns? =
+    when (provider) {
+        PREF_DOH_CLOUDFLARE ->
+            doh(
+                client,
+                "https://cloudflare-dns.com/dns-query",
+                "162.159.36.1",
+                "162.159.46.1",
+                "1.1.1.1",
+                "1.0.0.1",
+                "162.159.132.53",
+                "2606:4700:4700::1111",
+                "2606:4700:4700::1001",
+                "2606:4700:4700::0064",
+                "2606:4700:4700::6400",
+            )
+        PREF_DOH_GOOGLE ->
+            doh(
+                client,
+                "https://dns.google/dns-query",
+                "8.8.4.4",
+                "8.8.8.8",
+                "2001:4860:4860::8888",
+                "2001:4860:4860::8844",
+            )
+        PREF_DOH_ADGUARD ->
+            doh(
+                client,
+                "https://dns-unfiltered.adguard.com/dns-query",
+                "94.140.14.140",
+                "94.140.14.141",
+                "2a10:50c0::1:ff",
+                "2a10:50c0::2:ff",
+            )
+        PREF_DOH_QUAD9 ->
+            doh(
+                client,
+                "https://dns.quad9.net/dns-query",
+                "9.9.9.9",
+                "149.112.112.112",
+                "2620:fe::fe",
+                "2620:fe::9",
+            )
+        PREF_DOH_ALIDNS ->
+            doh(
+                client,
+                "https://dns.alidns.com/dns-query",
+                "223.5.5.5",
+                "223.6.6.6",
+                "2400:3200::1",
+                "2400:3200:baba::1",
+            )
+        PREF_DOH_DNSPOD ->
+            doh(
+                client,
+                "https://doh.pub/dns-query",
+                "1.12.12.12",
+                "120.53.53.53",
+            )
+        PREF_DOH_360 ->
+            doh(
+                client,
+                "https://doh.360.cn/dns-query",
+                "101.226.4.6",
+                "218.30.118.6",
+                "123.125.81.6",
+                "140.207.198.6",
+                "180.163.249.75",
+                "101.199.113.208",
+                "36.99.170.86",
+            )
+        PREF_DOH_QUAD101 ->
+            doh(
+                client,
+                "https://dns.twnic.tw/dns-query",
+                "101.101.101.101",
+                "2001:de4::101",
+                "2001:de4::102",
+            )
+        PREF_DOH_MULLVAD ->
+            doh(
+                client,
+                "https://doh.mullvad.net/dns-query",
+                "194.242.2.2",
+                "2a07:e340::2",
+            )
+        PREF_DOH_CONTROLD ->
+            doh(
+                client,
+                "https://freedns.controld.com/p0",
+                "76.76.2.0",
+                "76.76.10.0",
+                "2606:1a40::",
+                "2606:1a40:1::",
+            )
+        PREF_DOH_NJALLA ->
+            doh(
+                client,
+                "https://dns.njal.la/dns-query",
+                "95.215.19.53",
+                "2001:67c:2354:2::53",
+            )
+        PREF_DOH_SHECAN ->
+            doh(
+                client,
+                "https://free.shecan.ir/dns-query",
+                "178.22.122.100",
+                "185.51.200.2",
+            )
+        else -> null
+    }
+
+private fun doh(
+    client: OkHttpClient,
+    url: String,
+    vararg bootstrapHosts: String,
+): Dns =
+    DnsOverHttps
+        .Builder()
+        .client(client)
+        .url(url.toHttpUrl())
+        // Literal addresses, so this doesn't hit the resolver
+        .bootstrapDnsHosts(*bootstrapHosts.map { InetAddress.getByName(it) }.toTypedArray())
+        .build()
@@ -8,10 +8,13 @@ package eu.kanade.tachiyomi.network
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
 import android.content.Context
+import eu.kanade.tachiyomi.network.interceptor.AdaptiveConcurrencyInterceptor
 import eu.kanade.tachiyomi.network.interceptor.CloudflareInterceptor
+import eu.kanade.tachiyomi.network.interceptor.CoalescingInterceptor
 import eu.kanade.tachiyomi.network.interceptor.IgnoreGzipInterceptor
 import eu.kanade.tachiyomi.network.interceptor.UncaughtExceptionInterceptor
 import eu.kanade.tachiyomi.network.interceptor.UserAgentInterceptor
+import eu.kanade.tachiyomi.network.interceptor.traced
 import kotlinx.coroutines.DelicateCoroutinesApi
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.flow.MutableStateFlow
@@ -19,13 +22,24 @@ import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.drop
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
+import extension.bridge.Settings
 import okhttp3.Cache
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.Dns
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
 import okhttp3.brotli.BrotliInterceptor
 import okhttp3.logging.HttpLoggingInterceptor
 import extension.bridge.logging.androidCompatLogger
 import java.net.CookieHandler
 import java.net.CookieManager
+import java.io.IOException
 import java.net.CookiePolicy
 import java.nio.file.Files
 import java.util.concurrent.TimeUnit
@@ -65,6 +79,32 @@ class NetworkHelper(
             .launchIn(GlobalScope)
     }
 
+    /** Shared by every client so prefetched and cached lookups benefit all of them. */
+    val dns = CachingDns()
+
+    /** Per host protocol and connection reuse counters of every client. */
+    val connectionStats = ConnectionStatsListener()
+
+    /** Latency, status and cache counters per source and host, see [RequestMetrics.snapshot]. */
+    val requestMetrics = RequestMetrics()
+
+    private val callTracing = CallTracing()
+
+    // Sources keep talking to the same few hosts, keep more of their connections around than OkHttp's default 5
+    private val connectionPool = ConnectionPool(32, 5, TimeUnit.MINUTES)
+
+    /** Merges concurrent identical GETs when enabled in the settings, see [CoalescingInterceptor.stats]. */
+    val requestCoalescer = CoalescingInterceptor()
+
+    // Shared by every client built from client, the concurrency windows are sized against its per host limit
+    private val dispatcher = Dispatcher()
+
+    /**
+     * Adapts how many requests run at once per host when enabled in the settings, see
+     * [AdaptiveConcurrencyInterceptor.windows].
+     */
+    val concurrencyLimiter = AdaptiveConcurrencyInterceptor(maxWindow = { dispatcher.maxRequestsPerHost })
+
     private val baseClientBuilder: OkHttpClient.Builder
         get() {
             val builder =
@@ -74,13 +114,23 @@ class NetworkHelper(
                     .connectTimeout(30, TimeUnit.SECONDS)
                     .readTimeout(30, TimeUnit.SECONDS)
                     .callTimeout(2, TimeUnit.MINUTES)
+                    .connectionPool(connectionPool)
+                    .dispatcher(dispatcher)
+                    .eventListenerFactory(CompositeEventListenerFactory(connectionStats, requestMetrics, callTracing))
                     .cache(
                         Cache(
                             directory = Files.createTempDirectory("tachidesk_network_cache").toFile(),
                             maxSize = 5L * 1024 * 1024, // 5 MiB
                         ),
-                    ).addInterceptor(UncaughtExceptionInterceptor())
+                    )
+                    // First, so the rate limiters further down can report their waits to it
+                    .addInterceptor(requestMetrics)
+                    .addInterceptor(callTracing)
+                    .addInterceptor(UncaughtExceptionInterceptor())
                     .addInterceptor(UserAgentInterceptor(::defaultUserAgentProvider))
+                    .addInterceptor(requestCoalescer.traced())
+                    // Behind every application interceptor, including the ones sources add to their clients
+                    .addNetworkInterceptor(concurrencyLimiter.traced())
                     .addNetworkInterceptor(IgnoreGzipInterceptor())
                     .addNetworkInterceptor(BrotliInterceptor)
 
@@ -101,23 +151,12 @@ class NetworkHelper(
             // }
 
             builder.addInterceptor(
-                CloudflareInterceptor(setUserAgent = { userAgent.value = it }),
+                CloudflareInterceptor(setUserAgent = { userAgent.value = it }).traced(),
             )
 
-            // when (preferences.dohProvider().get()) {
-            //     PREF_DOH_CLOUDFLARE -> builder.dohCloudflare()
-            //     PREF_DOH_GOOGLE -> builder.dohGoogle()
-            //     PREF_DOH_ADGUARD -> builder.dohAdGuard()
-            //     PREF_DOH_QUAD9 -> builder.dohQuad9()
-            //     PREF_DOH_ALIDNS -> builder.dohAliDNS()
-            //     PREF_DOH_DNSPOD -> builder.dohDNSPod()
-            //     PREF_DOH_360 -> builder.doh360()
-            //     PREF_DOH_QUAD101 -> builder.dohQuad101()
-            //     PREF_DOH_MULLVAD -> builder.dohMullvad()
-            //     PREF_DOH_CONTROLD -> builder.dohControlD()
-            //     PREF_DOH_NJALLA -> builder.dohNajalla()
-            //     PREF_DOH_SHECAN -> builder.dohShecan()
-            // }
+            // The DoH endpoint itself is reached with the system resolver, so build its client before installing ours
+            dns.delegate = Settings.dohProvider.takeIf { it > 0 }?.let { dohProviderDns(it, builder.build()) } ?: Dns.SYSTEM
+            builder.dns(dns)
 
             return builder
         }
@@ -126,4 +165,89 @@ class NetworkHelper(
     val client by lazy { baseClientBuilder.build() }
 
     val cloudflareClient by lazy { client }
+
+    // Same connection settings (and pool) as client, without the cache and the application interceptors besides
+    // the user agent, a default OkHttp one is what WAFs flag first. Has its own dispatcher so the warm-up requests
+    // to one host all start at once instead of queueing behind each other
+    private val warmUpClient by lazy {
+        client
+            .newBuilder()
+            .apply {
+                interceptors().clear()
+                addInterceptor(UserAgentInterceptor(::defaultUserAgentProvider))
+            }.cache(null)
+            .dispatcher(Dispatcher().apply { maxRequestsPerHost = MAX_WARM_UP_CONNECTIONS })
+            .build()
+    }
+
+    /**
+     * Opens connections to the hosts of [urls] in the background so the first real requests skip the TCP and
+     * TLS handshakes. The connections stay in the shared pool for up to 5 idle minutes, see [connectionStats].
+     *
+     * Every host gets a single `HEAD` request first. HTTP/2 hosts multiplex all requests over the connection it
+     * opened, so they get nothing more. Hosts that answer over HTTP/1.1 get [http1Connections] (at most 2)
+     * connections, so as many requests can start in parallel. Sources' rate limits don't apply to these
+     * requests, hence the low cap.
+     */
+    fun warmUp(
+        urls: Collection<String>,
+        http1Connections: Int = 1,
+    ) {
+        val connections = http1Connections.coerceIn(1, MAX_WARM_UP_CONNECTIONS)
+        urls
+            .mapNotNull { it.toHttpUrlOrNull()?.newBuilder()?.encodedPath("/")?.query(null)?.fragment(null)?.build() }
+            .distinct()
+            .forEach { origin ->
+                val request = Request.Builder().url(origin).head().build()
+                warmUpClient.newCall(request).enqueue(ProbeCallback(connections))
+            }
+    }
+
+    private companion object {
+        const val MAX_WARM_UP_CONNECTIONS = 2
+    }
+
+    /** Opens the remaining connections once the first request tells the host only speaks HTTP/1.1. */
+    private inner class ProbeCallback(
+        private val connections: Int,
+    ) : Callback {
+        override fun onResponse(
+            call: Call,
+            response: Response,
+        ) {
+            val protocol = response.protocol
+            response.close()
+            if (connections < 2 || (protocol != Protocol.HTTP_1_1 && protocol != Protocol.HTTP_1_0)) return
+            // All started before any completes, one of them reuses the probe's idle connection and the others
+            // each open a new one
+            repeat(connections) {
+                warmUpClient.newCall(call.request()).enqueue(ClosingCallback)
+            }
+        }
+
+        override fun onFailure(
+            call: Call,
+            e: IOException,
+        ) {
+            ClosingCallback.onFailure(call, e)
+        }
+    }
+
+    private object ClosingCallback : Callback {
+        private val logger = androidCompatLogger(NetworkHelper::class.java)
+
+        override fun onResponse(
+            call: Call,
+            response: Response,
+        ) {
+            response.close()
+        }
+
+        override fun onFailure(
+            call: Call,
+            e: IOException,
+        ) {
+            logger.debug { "Warming up ${call.request().url.host} failed: ${e.message}" }
+        }
+    }
 }
@@ -1,13 +1,24 @@
 package eu.kanade.tachiyomi.network
 
+import extension.bridge.Settings
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.CompletionHandler
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.serialization.DeserializationStrategy
 import kotlinx.serialization.ExperimentalSerializationApi
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.json.DecodeSequenceMode
 import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.okio.decodeBufferedSourceToSequence
 import kotlinx.serialization.json.okio.decodeFromBufferedSource
 import kotlinx.serialization.serializer
 import okhttp3.Call
 import okhttp3.Callback
+import okhttp3.Interceptor
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
@@ -15,13 +26,23 @@ import okhttp3.Response
 import rx.Observable
 import rx.Producer
 import rx.Subscription
+import uy.kohesive.injekt.injectLazy
 import java.io.IOException
+import java.util.Collections
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.coroutines.resumeWithException
 import kotlin.coroutines.resume
+import kotlin.reflect.KType
+import kotlin.reflect.typeOf
 
 val jsonMime = "application/json; charset=utf-8".toMediaType()
 
+/**
+ * Emits the response of this call on OkHttp's dispatcher once requested, so subscribing never blocks
+ * the calling thread. Unsubscribing before the response arrived cancels the call.
+ */
 fun Call.asObservable(): Observable<Response> {
     return Observable.unsafeCreate { subscriber ->
         // Since Call is a one-shot type, clone it for each new subscriber.
@@ -29,16 +50,29 @@ fun Call.asObservable(): Observable<Response> {
 
         // Wrap the call in a helper which handles both unsubscription and backpressure.
         val requestArbiter =
-            object : AtomicBoolean(), Producer, Subscription {
+            object : AtomicBoolean(), Producer, Subscription, Callback {
+                // Once delivered, the response body belongs to the subscriber and must outlive the unsubscription
+                @Volatile
+                private var delivered = false
+
                 override fun request(n: Long) {
                     if (n == 0L || !compareAndSet(false, true)) return
 
+                    call.enqueue(this)
+                }
+
+                override fun onResponse(
+                    call: Call,
+                    response: Response,
+                ) {
+                    delivered = true
+                    if (subscriber.isUnsubscribed) {
+                        response.close()
+                        return
+                    }
                     try {
-                        val response = call.execute()
-                        if (!subscriber.isUnsubscribed) {
-                            subscriber.onNext(response)
-                            subscriber.onCompleted()
-                        }
+                        subscriber.onNext(response)
+                        subscriber.onCompleted()
                     } catch (error: Exception) {
                         if (!subscriber.isUnsubscribed) {
                             subscriber.onError(error)
@@ -46,8 +80,20 @@ fun Call.asObservable(): Observable<Response> {
                     }
                 }
 
+                override fun onFailure(
+                    call: Call,
+                    e: IOException,
+                ) {
+                    delivered = true
+                    if (!subscriber.isUnsubscribed) {
+                        subscriber.onError(e)
+                    }
+                }
+
                 override fun unsubscribe() {
-                    // call.cancel()
+                    if (!delivered) {
+                        call.cancel()
+                    }
                 }
 
                 override fun isUnsubscribed(): Boolean = call.isCanceled()
@@ -67,87 +113,173 @@ fun Call.asObservableSuccess(): Observable<Response> =
             }
         }
 
-// Based on https://github.com/gildor/kotlin-coroutines-okhttp
-private suspend fun Call.await(callStack: Array<StackTraceElement>): Response {
-    return suspendCancellableCoroutine { continuation ->
-        var responseRef: Response? = null
-
-        continuation.invokeOnCancellation {
-            responseRef?.close()
-            try {
-                cancel()
-            } catch (_: Throwable) {
-                // Ignore cancel exception
-            }
+// Capturing the caller's stack is a full stack walk per request, so failures are only decorated with it on demand
+private fun callStack(): Array<StackTraceElement>? {
+    if (!Settings.captureCallStack) return null
+    // Drop this frame and the await function calling it
+    return Exception().stackTrace.run { copyOfRange(2, size) }
+}
+
+/**
+ * Bridges the OkHttp callback to [continuation]. A single object doubles as cancellation handler so a
+ * successful call allocates nothing else.
+ */
+private class ContinuationCallback(
+    private val call: Call,
+    private val continuation: CancellableContinuation<Response>,
+    private val callStack: Array<StackTraceElement>?,
+) : Callback, CompletionHandler {
+    @Volatile
+    private var response: Response? = null
+
+    override fun onResponse(
+        call: Call,
+        response: Response,
+    ) {
+        this.response = response
+        try {
+            continuation.resume(response)
+        } catch (t: Throwable) {
+            response.close()
+            throw t
         }
+    }
 
-        val callback =
-            object : Callback {
-                override fun onResponse(
-                    call: Call,
-                    response: Response,
-                ) {
-                    responseRef = response
-                    try {
-                        continuation.resume(response)
-                    } catch (t: Throwable) {
-                        response.close()
-                        throw t
-                    }
-                }
+    override fun onFailure(
+        call: Call,
+        e: IOException,
+    ) {
+        // Don't bother with resuming the continuation if it is already cancelled.
+        if (continuation.isCancelled) return
+        val exception = if (callStack == null) e else IOException(e.message, e).apply { stackTrace = callStack }
+        continuation.resumeWithException(exception)
+    }
 
-                override fun onFailure(
-                    call: Call,
-                    e: IOException,
-                ) {
-                    // Don't bother with resuming the continuation if it is already cancelled.
-                    if (continuation.isCancelled) return
-                    val exception = IOException(e.message, e).apply { stackTrace = callStack }
-                    continuation.resumeWithException(exception)
-                }
-            }
+    // Cancellation handler
+    override fun invoke(cause: Throwable?) {
+        response?.close()
+        try {
+            call.cancel()
+        } catch (_: Throwable) {
+            // Ignore cancel exception
+        }
+    }
+}
 
+// Based on https://github.com/gildor/kotlin-coroutines-okhttp
+private suspend fun Call.await(callStack: Array<StackTraceElement>?): Response {
+    return suspendCancellableCoroutine { continuation ->
+        val callback = ContinuationCallback(this, continuation, callStack)
+        continuation.invokeOnCancellation(callback)
         enqueue(callback)
     }
 }
 
-suspend fun Call.await(): Response {
-    val callStack = Exception().stackTrace.run { copyOfRange(1, size) }
-    return await(callStack)
-}
+/**
+ * Set the `tachiyomi.network.captureCallStack` system property to `true` to have failures carry the
+ * stack of the caller instead of the OkHttp dispatcher thread.
+ */
+suspend fun Call.await(): Response = await(callStack())
 
 /**
  * @since extensions-lib 1.5
  */
 suspend fun Call.awaitSuccess(): Response {
-    val callStack = Exception().stackTrace.run { copyOfRange(1, size) }
+    val callStack = callStack()
     val response = await(callStack)
     if (!response.isSuccessful) {
         response.close()
-        throw HttpException(response.code).apply { stackTrace = callStack }
+        throw HttpException(response.code).apply { if (callStack != null) stackTrace = callStack }
     }
     return response
 }
 
+// Cacheless progress clients derived from each base client, built once instead of per call
+private val progressClients = Collections.synchronizedMap(WeakHashMap<OkHttpClient, OkHttpClient>())
+
+/** Wraps the response body of requests tagged with a [ProgressListener]. */
+private object ProgressInterceptor : Interceptor {
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val originalResponse = chain.proceed(chain.request())
+        val listener = chain.request().tag(ProgressListener::class.java) ?: return originalResponse
+        return originalResponse
+            .newBuilder()
+            .body(ProgressResponseBody(originalResponse.body, listener))
+            .build()
+    }
+}
+
 fun OkHttpClient.newCachelessCallWithProgress(
     request: Request,
     listener: ProgressListener,
 ): Call {
     val progressClient =
-        newBuilder()
-            .cache(null)
-            .addNetworkInterceptor { chain ->
-                val originalResponse = chain.proceed(chain.request())
-                originalResponse
-                    .newBuilder()
-                    .body(ProgressResponseBody(originalResponse.body, listener))
-                    .build()
-            }.build()
-
-    return progressClient.newCall(request)
+        progressClients.getOrPut(this) {
+            newBuilder()
+                .cache(null)
+                .addNetworkInterceptor(ProgressInterceptor)
+                .build()
+        }
+
+    return progressClient.newCall(
+        request
+            .newBuilder()
+            .tag(ProgressListener::class.java, listener)
+            .build(),
+    )
 }
 
-inline fun <reified T> Response.parseAs(json: Json = Json.Default): T = json.decodeFromJsonResponse(serializer(), this)
+/** The app's configured [Json] (lenient about unknown keys), used by default to decode responses. */
+@PublishedApi
+internal val injectedJson: Json by injectLazy()
+
+// serializer<T>() resolves the serializer reflectively, which adds up for small, frequent responses
+@PublishedApi
+internal val serializers = ConcurrentHashMap<KType, KSerializer<Any?>>()
+
+@PublishedApi
+internal inline fun <reified T> cachedSerializer(): KSerializer<T> {
+    val type = typeOf<T>()
+    @Suppress("UNCHECKED_CAST")
+    return serializers.getOrPut(type) { serializer(type) } as KSerializer<T>
+}
+
+inline fun <reified T> Response.parseAs(json: Json = injectedJson): T = json.decodeFromJsonResponse(cachedSerializer<T>(), this)
+
+fun <T> Response.parseAs(
+    deserializer: DeserializationStrategy<T>,
+    json: Json = injectedJson,
+): T = json.decodeFromJsonResponse(deserializer, this)
+
+/**
+ * Decodes a response holding a top-level JSON array element by element, so large arrays are never held in
+ * memory as a whole. The sequence is only valid inside [block], the body is closed afterwards.
+ */
+inline fun <reified T, R> Response.parseAsSequence(
+    json: Json = injectedJson,
+    block: (Sequence<T>) -> R,
+): R = json.decodeJsonArrayResponse(cachedSerializer<T>(), this, block)
+
+/**
+ * Emits the elements of a response holding a top-level JSON array as they are decoded. The body is read on
+ * the IO dispatcher and closed once the flow completes or is cancelled.
+ */
+inline fun <reified T> Response.parseAsFlow(json: Json = injectedJson): Flow<T> {
+    val deserializer = cachedSerializer<T>()
+    return flow { json.decodeJsonArrayResponse(deserializer, this@parseAsFlow) { elements -> elements.forEach { emit(it) } } }
+        .flowOn(Dispatchers.IO)
+}
+
+@OptIn(ExperimentalSerializationApi::class)
+@PublishedApi
+internal inline fun <T, R> Json.decodeJsonArrayResponse(
+    deserializer: DeserializationStrategy<T>,
+    response: Response,
+    block: (Sequence<T>) -> R,
+): R =
+    response.body.source().use {
+        block(decodeBufferedSourceToSequence(it, deserializer, DecodeSequenceMode.ARRAY_WRAPPED))
+    }
 
 @OptIn(ExperimentalSerializationApi::class)
 fun <T> Json.decodeFromJsonResponse(
@@ -17,9 +17,12 @@ class ProgressResponseBody(
         source(responseBody.source()).buffer()
     }
 
+    // Resolved once instead of on every read
+    private val contentLength = responseBody.contentLength()
+
     override fun contentType(): MediaType? = responseBody.contentType()
 
-    override fun contentLength(): Long = responseBody.contentLength()
+    override fun contentLength(): Long = contentLength
 
     override fun source(): BufferedSource = bufferedSource
 
@@ -35,7 +38,7 @@ class ProgressResponseBody(
                 val bytesRead = super.read(sink, byteCount)
                 // read() returns the number of bytes read, or -1 if this source is exhausted.
                 totalBytesRead += if (bytesRead != -1L) bytesRead else 0
-                progressListener.update(totalBytesRead, responseBody.contentLength(), bytesRead == -1L)
+                progressListener.update(totalBytesRead, contentLength, bytesRead == -1L)
                 return bytesRead
             }
         }
@@ -0,0 +1,349 @@
+package eu.kanade.tachiyomi.network
+
+import okhttp3.Call
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.HttpUrl
+import okhttp3.Interceptor
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Latency distribution over fixed buckets, [counts] has one more entry than [boundsMillis] for the values above
+ * the last bound.
+ */
+data class LatencyHistogram(
+    val boundsMillis: List<Long>,
+    val counts: List<Long>,
+    val count: Long,
+    val totalMillis: Double,
+) {
+    val averageMillis: Double
+        get() = if (count == 0L) 0.0 else totalMillis / count
+
+    /** Upper bound of the bucket holding the [percentile] (0-100), [Long.MAX_VALUE] if it's above the last one. */
+    fun percentileMillis(percentile: Double): Long {
+        if (count == 0L) return 0
+        val target = (count * percentile / 100).toLong().coerceIn(1, count)
+        var seen = 0L
+        counts.forEachIndexed { index, bucket ->
+            seen += bucket
+            if (seen >= target) return boundsMillis.getOrElse(index) { Long.MAX_VALUE }
+        }
+        return Long.MAX_VALUE
+    }
+}
+
+/**
+ * What happened to the requests of one source to one host. [source] is the [SourceRequestMetadata.sourceName]
+ * the requests were tagged with, null for untagged requests.
+ */
+data class RequestMetricsSnapshot(
+    val source: String?,
+    val host: String,
+    val calls: Long,
+    val failures: Long,
+    val cacheHits: Long,
+    val cacheMisses: Long,
+    val bytesSent: Long,
+    val bytesReceived: Long,
+    /** Network and cached responses by status code, including redirects. */
+    val statusCodes: Map<Int, Long>,
+    val dns: LatencyHistogram,
+    /** TCP connect including the TLS handshake, only for newly opened connections. */
+    val connect: LatencyHistogram,
+    val tls: LatencyHistogram,
+    /** From sending the request headers to the first byte of the response. */
+    val timeToFirstByte: LatencyHistogram,
+    val total: LatencyHistogram,
+    /** Time spent waiting on rate limits and the adaptive concurrency limiter. */
+    val rateLimitWait: LatencyHistogram,
+)
+
+/**
+ * Time a call spent waiting on rate limiters. [RequestMetrics] tags every request with one so the limiters
+ * further down the chain can report to it.
+ */
+class RateLimitWait {
+    private val nanos = LongAdder()
+
+    fun add(
+        duration: Long,
+        unit: TimeUnit = TimeUnit.NANOSECONDS,
+    ) {
+        nanos.add(unit.toNanos(duration))
+    }
+
+    internal fun nanos(): Long = nanos.sum()
+}
+
+/**
+ * Records per source and host request metrics for the clients it is installed on, both as the first application
+ * interceptor (rate limit waits) and as event listener (everything else). Recording only uses atomic counters.
+ *
+ * Redirected calls are counted against the host they ended on, their DNS, connect and response timings against
+ * the host of each hop.
+ */
+class RequestMetrics :
+    Interceptor,
+    EventListener.Factory {
+    private data class Key(
+        val source: String?,
+        val host: String,
+    )
+
+    private class Histogram {
+        private val counts = AtomicLongArray(BOUNDS_MILLIS.size + 1)
+        private val totalNanos = LongAdder()
+
+        fun record(nanos: Long) {
+            val millis = TimeUnit.NANOSECONDS.toMillis(nanos)
+            var bucket = BOUNDS_MILLIS.indexOfFirst { millis <= it }
+            if (bucket == -1) bucket = BOUNDS_MILLIS.size
+            counts.incrementAndGet(bucket)
+            totalNanos.add(nanos)
+        }
+
+        fun snapshot(): LatencyHistogram {
+            val counts = List(counts.length()) { counts.get(it) }
+            return LatencyHistogram(BOUNDS_MILLIS, counts, counts.sum(), totalNanos.sum() / 1_000_000.0)
+        }
+    }
+
+    private class Metrics {
+        val calls = LongAdder()
+        val failures = LongAdder()
+        val cacheHits = LongAdder()
+        val cacheMisses = LongAdder()
+        val bytesSent = LongAdder()
+        val bytesReceived = LongAdder()
+        val statusCodes = ConcurrentHashMap<Int, LongAdder>()
+        val dns = Histogram()
+        val connect = Histogram()
+        val tls = Histogram()
+        val timeToFirstByte = Histogram()
+        val total = Histogram()
+        val rateLimitWait = Histogram()
+
+        fun status(code: Int) {
+            (statusCodes[code] ?: statusCodes.computeIfAbsent(code) { LongAdder() }).increment()
+        }
+    }
+
+    private val metrics = ConcurrentHashMap<Key, Metrics>()
+
+    fun snapshot(): List<RequestMetricsSnapshot> =
+        metrics.map { (key, metrics) ->
+            RequestMetricsSnapshot(
+                source = key.source,
+                host = key.host,
+                calls = metrics.calls.sum(),
+                failures = metrics.failures.sum(),
+                cacheHits = metrics.cacheHits.sum(),
+                cacheMisses = metrics.cacheMisses.sum(),
+                bytesSent = metrics.bytesSent.sum(),
+                bytesReceived = metrics.bytesReceived.sum(),
+                statusCodes = metrics.statusCodes.mapValues { it.value.sum() },
+                dns = metrics.dns.snapshot(),
+                connect = metrics.connect.snapshot(),
+                tls = metrics.tls.snapshot(),
+                timeToFirstByte = metrics.timeToFirstByte.snapshot(),
+                total = metrics.total.snapshot(),
+                rateLimitWait = metrics.rateLimitWait.snapshot(),
+            )
+        }
+
+    fun clear() {
+        metrics.clear()
+    }
+
+    private fun metricsFor(
+        source: String?,
+        host: String,
+    ): Metrics {
+        val key = Key(source, host)
+        // Plain get first, computeIfAbsent may lock even when the key is present
+        return metrics[key] ?: metrics.computeIfAbsent(key) { Metrics() }
+    }
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val wait = RateLimitWait()
+        var host = request.url.host
+        try {
+            return chain
+                .proceed(
+                    request
+                        .newBuilder()
+                        .tag(RateLimitWait::class.java, wait)
+                        .build(),
+                ).also { host = it.request.url.host }
+        } finally {
+            wait.nanos().takeIf { it > 0 }?.let {
+                metricsFor(request.sourceMetadata()?.sourceName, host).rateLimitWait.record(it)
+            }
+        }
+    }
+
+    override fun create(call: Call): EventListener = CallListener(call.request())
+
+    private inner class CallListener(
+        request: Request,
+    ) : EventListener() {
+        private val source = request.sourceMetadata()?.sourceName
+
+        // Events of one call are delivered sequentially. Follows the host of the current hop
+        private var host = request.url.host
+        private var metrics = metricsFor(source, host)
+
+        private var callStart = 0L
+        private var dnsStart = 0L
+        private var connectStart = 0L
+        private var secureConnectStart = 0L
+        private var requestStart = 0L
+
+        private fun moveTo(url: HttpUrl) {
+            if (url.host == host) return
+            host = url.host
+            metrics = metricsFor(source, host)
+        }
+
+        override fun callStart(call: Call) {
+            callStart = System.nanoTime()
+        }
+
+        override fun proxySelectStart(
+            call: Call,
+            url: HttpUrl,
+        ) {
+            // First event of every hop that needs a new connection
+            moveTo(url)
+        }
+
+        override fun dnsStart(
+            call: Call,
+            domainName: String,
+        ) {
+            dnsStart = System.nanoTime()
+        }
+
+        override fun dnsEnd(
+            call: Call,
+            domainName: String,
+            inetAddressList: List<InetAddress>,
+        ) {
+            metrics.dns.record(System.nanoTime() - dnsStart)
+        }
+
+        override fun connectStart(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+        ) {
+            connectStart = System.nanoTime()
+        }
+
+        override fun secureConnectStart(call: Call) {
+            secureConnectStart = System.nanoTime()
+        }
+
+        override fun secureConnectEnd(
+            call: Call,
+            handshake: Handshake?,
+        ) {
+            metrics.tls.record(System.nanoTime() - secureConnectStart)
+        }
+
+        override fun connectEnd(
+            call: Call,
+            inetSocketAddress: InetSocketAddress,
+            proxy: Proxy,
+            protocol: Protocol?,
+        ) {
+            metrics.connect.record(System.nanoTime() - connectStart)
+        }
+
+        override fun requestHeadersStart(call: Call) {
+            requestStart = System.nanoTime()
+        }
+
+        override fun requestHeadersEnd(
+            call: Call,
+            request: Request,
+        ) {
+            moveTo(request.url)
+        }
+
+        override fun requestBodyEnd(
+            call: Call,
+            byteCount: Long,
+        ) {
+            metrics.bytesSent.add(byteCount)
+        }
+
+        override fun responseHeadersStart(call: Call) {
+            metrics.timeToFirstByte.record(System.nanoTime() - requestStart)
+        }
+
+        override fun responseHeadersEnd(
+            call: Call,
+            response: Response,
+        ) {
+            metrics.status(response.code)
+        }
+
+        override fun responseBodyEnd(
+            call: Call,
+            byteCount: Long,
+        ) {
+            metrics.bytesReceived.add(byteCount)
+        }
+
+        override fun cacheHit(
+            call: Call,
+            cachedResponse: Response,
+        ) {
+            moveTo(cachedResponse.request.url)
+            metrics.cacheHits.increment()
+            metrics.status(cachedResponse.code)
+        }
+
+        override fun cacheConditionalHit(
+            call: Call,
+            cachedResponseWithNoBody: Response,
+        ) {
+            metrics.cacheHits.increment()
+        }
+
+        override fun cacheMiss(call: Call) {
+            metrics.cacheMisses.increment()
+        }
+
+        override fun callEnd(call: Call) {
+            metrics.calls.increment()
+            metrics.total.record(System.nanoTime() - callStart)
+        }
+
+        override fun callFailed(
+            call: Call,
+            ioe: IOException,
+        ) {
+            metrics.calls.increment()
+            metrics.failures.increment()
+            metrics.total.record(System.nanoTime() - callStart)
+        }
+    }
+
+    companion object {
+        private val BOUNDS_MILLIS = listOf(1L, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000)
+    }
+}
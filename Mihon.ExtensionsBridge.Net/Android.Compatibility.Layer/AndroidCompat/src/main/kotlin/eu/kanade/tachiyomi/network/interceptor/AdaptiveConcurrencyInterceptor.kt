@@ -0,0 +1,272 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+import android.os.SystemClock
+import eu.kanade.tachiyomi.network.RateLimitWait
+import extension.bridge.Settings
+import extension.bridge.logging.androidCompatLogger
+import okhttp3.Interceptor
+import okhttp3.MediaType
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okio.Buffer
+import okio.BufferedSource
+import okio.ForwardingSource
+import okio.buffer
+import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Adapts the number of concurrent requests per host with AIMD (additive increase, multiplicative decrease).
+ *
+ * Every host starts with a window of [initialWindow] concurrent requests. Each successful response grows it by
+ * roughly one request per window, while a `429`/`503` response halves it and pauses the host for the duration
+ * of its `Retry-After` header. Latency climbing well above the best one seen so far shrinks the window too,
+ * before the host starts refusing requests.
+ *
+ * Windows never grow past [maxWindow], meant to be the dispatcher's `maxRequestsPerHost` since asynchronous calls
+ * can't run more requests per host than that anyway. A request to a host limited with [rateLimitHost] takes no
+ * more slots than the permits per period it was given there, see [HostPermits].
+ *
+ * Meant to be installed as a network interceptor, so a source's own rate limits, Cloudflare solves and cache hits
+ * neither take a slot nor count as latency, and a request made from within an application interceptor can't end
+ * up waiting on its outer request's slot. A slot is held until the response body is exhausted or closed, and the
+ * time until then is the latency, so downloading a large page counts against the window like it does against the
+ * host. Requests waiting for a slot already hold their connection.
+ *
+ * Only active while [Settings.adaptiveConcurrencyEnabled] is set.
+ */
+class AdaptiveConcurrencyInterceptor(
+    private val initialWindow: Int = 4,
+    private val maxWindow: () -> Int,
+) : Interceptor {
+    private val logger = androidCompatLogger(AdaptiveConcurrencyInterceptor::class.java)
+
+    private val hosts = ConcurrentHashMap<String, HostWindow>()
+
+    data class WindowStats(
+        val host: String,
+        val window: Int,
+        val inFlight: Int,
+        val averageLatencyMillis: Double,
+        /** Milliseconds until the host may be contacted again after a `Retry-After`, 0 if not paused. */
+        val pausedForMillis: Long,
+    )
+
+    fun windows(): List<WindowStats> = hosts.map { (host, window) -> window.stats(host) }
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (!Settings.adaptiveConcurrencyEnabled) {
+            return chain.proceed(request)
+        }
+
+        val host = request.url.host
+        val upperBound = max(1, maxWindow())
+        val window = hosts.getOrPut(host) { HostWindow(min(initialWindow, upperBound).toDouble()) }
+        val permits = request.tag(HostPermits::class.java)?.takeIf { it.host == host }?.permits ?: Int.MAX_VALUE
+
+        val waitStart = System.nanoTime()
+        window.acquire(chain, min(upperBound, permits))
+        request.tag(RateLimitWait::class.java)?.add(System.nanoTime() - waitStart)
+
+        val start = SystemClock.elapsedRealtime()
+        val response =
+            try {
+                chain.proceed(request)
+            } catch (e: Throwable) {
+                window.release()
+                throw e
+            }
+
+        val rejected = response.code == 429 || response.code == 503
+        if (rejected) {
+            window.onRejected(retryAfterMillis(response))
+            logger.debug { "$host answered ${response.code}, window is now ${window.size()}" }
+        }
+        return response
+            .newBuilder()
+            .body(
+                SlotResponseBody(response.body) { exhausted ->
+                    // A body closed early says nothing about how long the whole one would have taken
+                    if (exhausted && !rejected) window.onSuccess(SystemClock.elapsedRealtime() - start, upperBound)
+                    window.release()
+                },
+            ).build()
+    }
+
+    private fun retryAfterMillis(response: Response): Long {
+        val value = response.header("Retry-After") ?: return 0
+        val millis =
+            value.trim().toLongOrNull()?.times(1000)
+                ?: response.headers.getDate("Retry-After")?.let { it.time - System.currentTimeMillis() }
+                ?: 0
+        return millis.coerceIn(0, MAX_RETRY_AFTER_MILLIS)
+    }
+
+    /**
+     * Releases the slot of a response once its body is exhausted or closed, whichever comes first.
+     * [onDone] is called once, with whether the body was read to the end.
+     */
+    private class SlotResponseBody(
+        private val responseBody: ResponseBody,
+        private val onDone: (exhausted: Boolean) -> Unit,
+    ) : ResponseBody() {
+        private val done = AtomicBoolean()
+
+        private val bufferedSource: BufferedSource by lazy {
+            object : ForwardingSource(responseBody.source()) {
+                override fun read(
+                    sink: Buffer,
+                    byteCount: Long,
+                ): Long {
+                    val bytesRead = super.read(sink, byteCount)
+                    if (bytesRead == -1L) finish(true)
+                    return bytesRead
+                }
+
+                override fun close() {
+                    try {
+                        super.close()
+                    } finally {
+                        finish(false)
+                    }
+                }
+            }.buffer()
+        }
+
+        override fun contentType(): MediaType? = responseBody.contentType()
+
+        override fun contentLength(): Long = responseBody.contentLength()
+
+        override fun source(): BufferedSource = bufferedSource
+
+        override fun close() {
+            try {
+                responseBody.close()
+            } finally {
+                finish(false)
+            }
+        }
+
+        private fun finish(exhausted: Boolean) {
+            if (done.compareAndSet(false, true)) onDone(exhausted)
+        }
+    }
+
+    private class HostWindow(
+        private var limit: Double,
+    ) {
+        private val lock = Object()
+        private var inFlight = 0
+        private var pausedUntil = 0L
+        private var lastDecrease = 0L
+
+        // Latency is tracked as an exponential moving average compared against the lowest one seen
+        private var averageLatency = 0.0
+        private var baseLatency = Double.MAX_VALUE
+
+        fun size(): Int = synchronized(lock) { limit.toInt() }
+
+        /** Waits until fewer than the window's size and [cap] requests are in flight. */
+        fun acquire(
+            chain: Interceptor.Chain,
+            cap: Int,
+        ) {
+            synchronized(lock) {
+                while (true) {
+                    if (chain.call().isCanceled()) throw IOException("Canceled")
+                    val now = SystemClock.elapsedRealtime()
+                    val waitMillis =
+                        when {
+                            now < pausedUntil -> pausedUntil - now
+                            inFlight >= min(limit.toInt(), cap) -> WAIT_SLICE_MILLIS
+                            else -> break
+                        }
+                    try {
+                        // Woken up by releases, re-checks cancellation at least every slice
+                        lock.wait(min(waitMillis, WAIT_SLICE_MILLIS))
+                    } catch (e: InterruptedException) {
+                        throw IOException(e)
+                    }
+                }
+                inFlight++
+            }
+        }
+
+        fun release() {
+            synchronized(lock) {
+                inFlight--
+                lock.notifyAll()
+            }
+        }
+
+        fun onSuccess(
+            latencyMillis: Long,
+            upperBound: Int,
+        ) {
+            synchronized(lock) {
+                averageLatency =
+                    if (averageLatency == 0.0) latencyMillis.toDouble() else averageLatency * 0.8 + latencyMillis * 0.2
+                // Let the baseline drift up slowly so one lucky request doesn't pin it forever
+                baseLatency = min(baseLatency * 1.01, latencyMillis.toDouble())
+
+                if (averageLatency > baseLatency * LATENCY_TOLERANCE && latencyMillis > MIN_SIGNIFICANT_LATENCY_MILLIS) {
+                    decrease(LATENCY_BACKOFF)
+                } else {
+                    limit = min(upperBound.toDouble(), limit + 1 / limit)
+                }
+                limit = min(limit, upperBound.toDouble())
+            }
+        }
+
+        fun onRejected(retryAfterMillis: Long) {
+            synchronized(lock) {
+                decrease(REJECTED_BACKOFF)
+                if (retryAfterMillis > 0) {
+                    pausedUntil = max(pausedUntil, SystemClock.elapsedRealtime() + retryAfterMillis)
+                }
+            }
+        }
+
+        /** Must hold [lock]. Only backs off once per latency period, so one burst doesn't collapse the window. */
+        private fun decrease(factor: Double) {
+            val now = SystemClock.elapsedRealtime()
+            if (now - lastDecrease < max(averageLatency.toLong(), MIN_DECREASE_INTERVAL_MILLIS)) return
+            lastDecrease = now
+            limit = max(1.0, limit * factor)
+        }
+
+        fun stats(host: String): WindowStats =
+            synchronized(lock) {
+                WindowStats(
+                    host = host,
+                    window = limit.toInt(),
+                    inFlight = inFlight,
+                    averageLatencyMillis = averageLatency,
+                    pausedForMillis = max(0, pausedUntil - SystemClock.elapsedRealtime()),
+                )
+            }
+    }
+
+    /**
+     * Tagged on requests by [rateLimitHost] interceptors so a request to [host] doesn't take more slots than the
+     * [permits] per period it allows anyway. The smallest one wins when several limit the same host.
+     */
+    internal class HostPermits(
+        val host: String,
+        val permits: Int,
+    )
+
+    companion object {
+        private const val WAIT_SLICE_MILLIS = 1000L
+        private const val MAX_RETRY_AFTER_MILLIS = 5 * 60 * 1000L
+        private const val MIN_DECREASE_INTERVAL_MILLIS = 100L
+        private const val MIN_SIGNIFICANT_LATENCY_MILLIS = 250L
+        private const val LATENCY_TOLERANCE = 2.0
+        private const val LATENCY_BACKOFF = 0.9
+        private const val REJECTED_BACKOFF = 0.5
+    }
+}
@@ -5,13 +5,17 @@ import eu.kanade.tachiyomi.network.POST
 import eu.kanade.tachiyomi.network.awaitSuccess
 import eu.kanade.tachiyomi.network.parseAs
 import extension.bridge.logging.androidCompatLogger
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
 import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.map
 import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.runBlocking
-import kotlinx.coroutines.sync.Mutex
-import kotlinx.coroutines.sync.withLock
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
 import kotlinx.serialization.encodeToString
@@ -27,6 +31,8 @@ import okhttp3.ResponseBody.Companion.toResponseBody
 import extension.bridge.Settings
 import uy.kohesive.injekt.injectLazy
 import java.io.IOException
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.Duration.Companion.minutes
 import kotlin.time.Duration.Companion.seconds
 import kotlin.time.toJavaDuration
 
@@ -40,7 +46,9 @@ class CloudflareInterceptor(
 
         logger.debug { "CloudflareInterceptor is being used." }
 
-        val originalResponse = chain.proceed(originalRequest)
+        val clearance = CFClearance.clearanceFor(originalRequest.url)
+        val originalResponse =
+            chain.proceed(clearance?.let { CFClearance.withClearance(originalRequest, it) } ?: originalRequest)
 
         // Check if Cloudflare anti-bot is on
         if (!(originalResponse.code in ERROR_CODES && originalResponse.header("Server") in SERVER_CHECK)) {
@@ -53,20 +61,33 @@ class CloudflareInterceptor(
 
         logger.debug { "Cloudflare anti-bot is on, CloudflareInterceptor is kicking in..." }
 
+        // The cached clearance didn't get us through, so it must not be handed out again
+        clearance?.let { CFClearance.invalidateClearance(originalRequest.url, it) }
+
         return try {
             originalResponse.close()
             // network.cookieStore.remove(originalRequest.url.toUri())
 
+            // Another request may have solved the challenge while this one was in flight
+            val freshClearance = CFClearance.clearanceFor(originalRequest.url)
+            if (freshClearance != null && freshClearance !== clearance) {
+                logger.debug { "Retrying with clearance obtained by a concurrent request" }
+                return chain.proceed(CFClearance.withClearance(originalRequest, freshClearance))
+            }
+
             val flareResponseFallback = Settings.flareSolverrAsResponseFallback
-            val flareResponse =
+            val solve =
                 runBlocking {
-                    CFClearance.resolveWithFlareSolver(originalRequest, !flareResponseFallback)
+                    CFClearance.solve(originalRequest, !flareResponseFallback)
                 }
+            val flareResponse = solve.response
 
             if (flareResponse.message.contains("not detected", ignoreCase = true)) {
                 logger.debug { "FlareSolverr failed to detect Cloudflare challenge" }
 
+                // A solve shared with a request for another page carries that page's body
                 if (flareResponseFallback &&
+                    solve.url == originalRequest.url &&
                     flareResponse.solution.status in 200..299 &&
                     flareResponse.solution.response != null
                 ) {
@@ -100,7 +121,7 @@ class CloudflareInterceptor(
     companion object {
         private val ERROR_CODES = listOf(403, 503)
         private val SERVER_CHECK = arrayOf("cloudflare-nginx", "cloudflare")
-        private val COOKIE_NAMES = listOf("cf_clearance")
+        internal val COOKIE_NAMES = listOf("cf_clearance")
         private val CHROME_IMAGE_TEMPLATE_REGEX = Regex("""<title>(.*?) \(\d+×\d+\)</title>""")
     }
 }
@@ -122,7 +143,30 @@ object CFClearance {
     }
     private val json: Json by injectLazy()
     private val jsonMediaType = "application/json".toMediaType()
-    private val mutex = Mutex()
+
+    // Solves run here rather than in the requesting coroutine, so one waiter giving up doesn't cancel it for the rest
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val solves = ConcurrentHashMap<String, Deferred<Solve>>()
+    private val clearances = ConcurrentHashMap<String, Clearance>()
+    private val CLEARANCE_TTL = 30.minutes
+
+    /**
+     * A solved challenge for one host: the clearance cookies only work with the user agent that obtained them.
+     */
+    class Clearance(
+        val userAgent: String,
+        val cookies: List<Cookie>,
+        val expiresAt: Long,
+    ) {
+        val isValid: Boolean
+            get() = System.currentTimeMillis() < expiresAt
+    }
+
+    /** The result of one FlareSolverr round trip, [url] being the page it was made for. */
+    class Solve(
+        val url: HttpUrl,
+        val response: FlareSolverResponse,
+    )
 
     @Serializable
     data class FlareSolverCookie(
@@ -180,41 +224,154 @@ object CFClearance {
         val version: String,
     )
 
+    /** Returns the cached, unexpired clearance for the host of [url], if any. */
+    fun clearanceFor(url: HttpUrl): Clearance? {
+        val clearance = clearances[url.host] ?: return null
+        if (clearance.isValid) return clearance
+        clearances.remove(url.host, clearance)
+        return null
+    }
+
+    fun invalidateClearance(
+        url: HttpUrl,
+        clearance: Clearance,
+    ) {
+        if (clearances.remove(url.host, clearance)) {
+            logger.debug { "Dropped rejected clearance for ${url.host}" }
+        }
+    }
+
+    /**
+     * Makes [request] use [clearance]: its cookies are put back into the cookie jar if they were dropped or
+     * replaced there since the solve, OkHttp sends them from the jar, and the user agent is the solver's.
+     */
+    fun withClearance(
+        request: Request,
+        clearance: Clearance,
+    ): Request {
+        val jarCookies = network.cookieStore.get(request.url)
+        val missing =
+            clearance.cookies.filter { cookie ->
+                jarCookies.none { it.name == cookie.name && it.value == cookie.value }
+            }
+        if (missing.isNotEmpty()) {
+            network.cookieStore.addAll(request.url, missing)
+        }
+        return request
+            .newBuilder()
+            .header("User-Agent", clearance.userAgent)
+            .build()
+    }
+
     suspend fun resolveWithFlareSolver(
         originalRequest: Request,
         onlyCookies: Boolean,
+    ): FlareSolverResponse = solve(originalRequest, onlyCookies).response
+
+    /**
+     * Solves the challenge for the host of [originalRequest]. Concurrent callers for the same host share
+     * a single FlareSolverr round trip, while different hosts are solved in parallel.
+     */
+    suspend fun solve(
+        originalRequest: Request,
+        onlyCookies: Boolean,
+    ): Solve {
+        val host = originalRequest.url.host
+        while (true) {
+            solves[host]?.let { return it.await() }
+
+            val solve =
+                scope.async(start = CoroutineStart.LAZY) {
+                    val response = requestSolve(originalRequest, onlyCookies)
+                    rememberClearance(host, response)
+                    Solve(originalRequest.url, response)
+                }
+            if (solves.putIfAbsent(host, solve) == null) {
+                solve.invokeOnCompletion { solves.remove(host, solve) }
+                return solve.await()
+            }
+            solve.cancel()
+        }
+    }
+
+    private suspend fun requestSolve(
+        originalRequest: Request,
+        onlyCookies: Boolean,
     ): FlareSolverResponse {
         val timeout = Settings.flareSolverrTimeout.seconds
 
         return with(json) {
-            mutex.withLock {
-                client
-                    .newCall(
-                        POST(
-                            url = Settings.flareSolverrUrl.removeSuffix("/") + "/v1",
-                            body =
-                                Json
-                                    .encodeToString(
-                                        FlareSolverRequest(
-                                            "request.get",
-                                            originalRequest.url.toString(),
-                                            session = Settings.flareSolverrSessionName,
-                                            sessionTtlMinutes = Settings.flareSolverrSessionTtl,
-                                            cookies =
-                                                network.cookieStore.get(originalRequest.url).map {
-                                                    FlareSolverCookie(it.name, it.value)
-                                                },
-                                            returnOnlyCookies = onlyCookies,
-                                            maxTimeout = timeout.inWholeMilliseconds.toInt(),
-                                        ),
-                                    ).toRequestBody(jsonMediaType),
-                        ),
-                    ).awaitSuccess()
-                    .parseAs<FlareSolverResponse>()
-            }
+            client
+                .newCall(
+                    POST(
+                        url = Settings.flareSolverrUrl.removeSuffix("/") + "/v1",
+                        body =
+                            Json
+                                .encodeToString(
+                                    FlareSolverRequest(
+                                        "request.get",
+                                        originalRequest.url.toString(),
+                                        session = Settings.flareSolverrSessionName,
+                                        sessionTtlMinutes = Settings.flareSolverrSessionTtl,
+                                        cookies =
+                                            network.cookieStore.get(originalRequest.url).map {
+                                                FlareSolverCookie(it.name, it.value)
+                                            },
+                                        returnOnlyCookies = onlyCookies,
+                                        maxTimeout = timeout.inWholeMilliseconds.toInt(),
+                                    ),
+                                ).toRequestBody(jsonMediaType),
+                    ),
+                ).awaitSuccess()
+                .parseAs<FlareSolverResponse>()
         }
     }
 
+    private fun rememberClearance(
+        host: String,
+        response: FlareSolverResponse,
+    ) {
+        if (response.solution.status !in 200..299) return
+        val cookies =
+            response.solution.cookies
+                .filter { it.name in CloudflareInterceptor.COOKIE_NAMES }
+                .map { it.toCookie() }
+        if (cookies.isEmpty()) return
+
+        val maxExpiry = System.currentTimeMillis() + CLEARANCE_TTL.inWholeMilliseconds
+        val expiresAt = cookies.minOf { if (it.persistent) it.expiresAt else maxExpiry }.coerceAtMost(maxExpiry)
+        network.cookieStore.addAll(
+            HttpUrl
+                .Builder()
+                .scheme("https")
+                .host(host)
+                .build(),
+            cookies,
+        )
+        clearances[host] = Clearance(response.solution.userAgent, cookies, expiresAt)
+        logger.debug { "Cached clearance for $host" }
+    }
+
+    private fun FlareSolverSolutionCookie.toCookie(): Cookie {
+        val cookie = this
+        val expirationSeconds = cookie.expires ?: cookie.expiry
+        return Cookie
+            .Builder()
+            .name(cookie.name)
+            .value(cookie.value)
+            .domain(cookie.domain.removePrefix("."))
+            .also {
+                if (cookie.httpOnly != null && cookie.httpOnly) it.httpOnly()
+                if (cookie.secure != null && cookie.secure) it.secure()
+                if (!cookie.path.isNullOrEmpty()) it.path(cookie.path)
+                // We need to convert the expires time to milliseconds for the persistent cookie store
+                if (expirationSeconds != null && expirationSeconds > 0) {
+                    it.expiresAt((expirationSeconds * 1000).toLong())
+                }
+                if (!cookie.domain.startsWith('.')) it.hostOnlyDomain(cookie.domain.removePrefix("."))
+            }.build()
+    }
+
     fun requestWithFlareSolverr(
         flareSolverResponse: FlareSolverResponse,
         setUserAgent: (String) -> Unit,
@@ -224,24 +381,8 @@ object CFClearance {
             setUserAgent(flareSolverResponse.solution.userAgent)
             val cookies =
                 flareSolverResponse.solution.cookies
-                    .map { cookie ->
-                        val expirationSeconds = cookie.expires ?: cookie.expiry
-                        Cookie
-                            .Builder()
-                            .name(cookie.name)
-                            .value(cookie.value)
-                            .domain(cookie.domain.removePrefix("."))
-                            .also {
-                                if (cookie.httpOnly != null && cookie.httpOnly) it.httpOnly()
-                                if (cookie.secure != null && cookie.secure) it.secure()
-                                if (!cookie.path.isNullOrEmpty()) it.path(cookie.path)
-                                // We need to convert the expires time to milliseconds for the persistent cookie store
-                                if (expirationSeconds != null && expirationSeconds > 0) {
-                                    it.expiresAt((expirationSeconds * 1000).toLong())
-                                }
-                                if (!cookie.domain.startsWith('.')) it.hostOnlyDomain(cookie.domain.removePrefix("."))
-                            }.build()
-                    }.groupBy { it.domain }
+                    .map { it.toCookie() }
+                    .groupBy { it.domain }
                     .flatMap { (domain, cookies) ->
                         network.cookieStore.addAll(
                             HttpUrl
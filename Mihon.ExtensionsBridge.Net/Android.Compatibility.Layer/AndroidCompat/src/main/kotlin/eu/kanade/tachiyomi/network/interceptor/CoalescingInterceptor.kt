@@ -0,0 +1,262 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+import eu.kanade.tachiyomi.network.ProgressListener
+import eu.kanade.tachiyomi.network.SourceRequestMetadata
+import eu.kanade.tachiyomi.network.sourceMetadata
+import extension.bridge.Settings
+import extension.bridge.logging.androidCompatLogger
+import okhttp3.Headers
+import okhttp3.Interceptor
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okio.Buffer
+import okio.BufferedSource
+import okio.Source
+import okio.buffer
+import java.io.IOException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Merges concurrent identical GETs (same source, URL and headers) into a single network call, so a source
+ * fetching the same series page for its details and chapters at once only hits the server once.
+ *
+ * This runs on the base client, before the interceptors a source adds to its own client, which may still add
+ * auth headers or rewrite the URL. Only requests tagged with a [SourceRequestMetadata] are merged, and only with
+ * requests of the same source, so a response never goes to a request another source's interceptors built.
+ *
+ * The first request is sent as usual. If other requests join while it's in flight, its body is read into a
+ * shared buffer of at most [maxBufferSize] bytes and every caller gets its own view of it. Bodies that don't
+ * fit are streamed to the first caller only, and the others send their own request.
+ *
+ * Only active while [Settings.requestCoalescingEnabled] is set.
+ */
+class CoalescingInterceptor(
+    private val maxBufferSize: Long = 4L * 1024 * 1024,
+) : Interceptor {
+    private val logger = androidCompatLogger(CoalescingInterceptor::class.java)
+
+    private val inFlight = ConcurrentHashMap<Key, Flight>()
+
+    private val calls = AtomicLong()
+    private val coalesced = AtomicLong()
+    private val overflows = AtomicLong()
+
+    data class Stats(
+        /** Requests that went to the network through this interceptor. */
+        val calls: Long,
+        /** Requests answered from another request's response. */
+        val coalesced: Long,
+        /** Shared responses whose body was too large to hand out to the waiters. */
+        val overflows: Long,
+    )
+
+    private data class Key(
+        val source: SourceRequestMetadata,
+        val url: String,
+        val headers: Headers,
+    )
+
+    private sealed class Outcome {
+        class Shared(
+            val response: Response,
+            val body: Buffer,
+        ) : Outcome()
+
+        class Failed(
+            val error: IOException,
+        ) : Outcome()
+
+        /** The waiters have to make their own request. */
+        object Unshared : Outcome()
+    }
+
+    private class Flight {
+        val outcome = CompletableFuture<Outcome>()
+        var waiters = 0
+        var closed = false
+    }
+
+    fun stats(): Stats = Stats(calls.get(), coalesced.get(), overflows.get())
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val source = request.sourceMetadata()
+        if (!Settings.requestCoalescingEnabled ||
+            source == null ||
+            request.method != "GET" ||
+            request.body != null ||
+            // Progress is reported by the network interceptor of the one request that actually runs
+            request.tag(ProgressListener::class.java) != null
+        ) {
+            return chain.proceed(request)
+        }
+
+        val key = Key(source, request.url.toString(), request.headers)
+        val flight = Flight()
+        while (true) {
+            val existing = inFlight.putIfAbsent(key, flight) ?: break
+            synchronized(existing) {
+                if (!existing.closed) existing.waiters++ else null
+            } ?: continue
+            return await(chain, existing)
+        }
+
+        return lead(chain, key, flight)
+    }
+
+    private fun lead(
+        chain: Interceptor.Chain,
+        key: Key,
+        flight: Flight,
+    ): Response {
+        calls.incrementAndGet()
+        val response =
+            try {
+                chain.proceed(chain.request())
+            } catch (e: Throwable) {
+                close(key, flight)
+                // A cancelled leader says nothing about the request itself
+                flight.outcome.complete(if (chain.call().isCanceled()) Outcome.Unshared else Outcome.Failed(e.asIOException()))
+                throw e
+            }
+
+        // Nobody joined, hand the response over untouched
+        if (close(key, flight) == 0) {
+            flight.outcome.complete(Outcome.Unshared)
+            return response
+        }
+
+        val source = response.body.source()
+        val body = Buffer()
+        try {
+            readAtMost(source, body, maxBufferSize + 1)
+        } catch (e: Throwable) {
+            response.close()
+            flight.outcome.complete(Outcome.Failed(e.asIOException()))
+            throw e
+        }
+
+        if (body.size > maxBufferSize) {
+            overflows.incrementAndGet()
+            logger.debug { "Response for ${key.url} exceeds the shared buffer, waiters will fetch it themselves" }
+            flight.outcome.complete(Outcome.Unshared)
+            return response
+                .newBuilder()
+                .body(
+                    PrefixedSource(body, source)
+                        .buffer()
+                        .asResponseBody(response.body.contentType(), response.body.contentLength()),
+                ).build()
+        }
+
+        // Only the status and headers of the original response are used from here on
+        response.close()
+        flight.outcome.complete(Outcome.Shared(response, body))
+        return response.withBody(body.copy())
+    }
+
+    private fun await(
+        chain: Interceptor.Chain,
+        flight: Flight,
+    ): Response {
+        val outcome = waitFor(chain, flight)
+
+        return when (outcome) {
+            is Outcome.Shared -> {
+                coalesced.incrementAndGet()
+                // Segments are shared copy-on-write, so every waiter gets the body without copying it
+                outcome.response
+                    .newBuilder()
+                    .request(chain.request())
+                    .build()
+                    .withBody(outcome.body.copy())
+            }
+            is Outcome.Failed -> throw IOException(outcome.error.message, outcome.error)
+            Outcome.Unshared -> {
+                calls.incrementAndGet()
+                chain.proceed(chain.request())
+            }
+        }
+    }
+
+    /**
+     * Waits for the leader of [flight] until this call is cancelled, which is also how its call timeout ends it.
+     * After [MAX_WAIT_MILLIS] without an outcome the waiter stops waiting and sends its own request.
+     */
+    private fun waitFor(
+        chain: Interceptor.Chain,
+        flight: Flight,
+    ): Outcome {
+        val call = chain.call()
+        val maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_MILLIS)
+        val start = System.nanoTime()
+        while (true) {
+            if (call.isCanceled()) throw IOException("Canceled")
+            try {
+                return flight.outcome.get(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS)
+            } catch (e: TimeoutException) {
+                if (System.nanoTime() - start >= maxWaitNanos) {
+                    logger.debug { "Gave up waiting on a coalesced request for ${chain.request().url}" }
+                    return Outcome.Unshared
+                }
+            } catch (e: ExecutionException) {
+                throw IOException(e.cause)
+            } catch (e: InterruptedException) {
+                throw IOException(e)
+            }
+        }
+    }
+
+    /** Stops new requests from joining [flight] and returns how many did. */
+    private fun close(
+        key: Key,
+        flight: Flight,
+    ): Int {
+        inFlight.remove(key, flight)
+        return synchronized(flight) {
+            flight.closed = true
+            flight.waiters
+        }
+    }
+
+    private fun Throwable.asIOException(): IOException = this as? IOException ?: IOException(this)
+
+    private fun Response.withBody(body: Buffer): Response =
+        newBuilder()
+            .body(body.asResponseBody(this.body.contentType(), body.size))
+            .build()
+
+    private fun readAtMost(
+        source: BufferedSource,
+        sink: Buffer,
+        byteCount: Long,
+    ) {
+        while (sink.size < byteCount) {
+            if (source.read(sink, byteCount - sink.size) == -1L) return
+        }
+    }
+
+    private companion object {
+        const val WAIT_SLICE_MILLIS = 100L
+        const val MAX_WAIT_MILLIS = 2 * 60 * 1000L
+    }
+
+    /** Replays the already buffered [prefix] before continuing with the rest of [source]. */
+    private class PrefixedSource(
+        private val prefix: Buffer,
+        private val source: Source,
+    ) : Source by source {
+        override fun read(
+            sink: Buffer,
+            byteCount: Long,
+        ): Long {
+            if (prefix.size > 0) return prefix.read(sink, byteCount)
+            return source.read(sink, byteCount)
+        }
+    }
+}
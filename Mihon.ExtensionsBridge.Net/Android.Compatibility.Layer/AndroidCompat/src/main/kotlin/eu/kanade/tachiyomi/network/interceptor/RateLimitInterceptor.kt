@@ -1,8 +1,11 @@
 package eu.kanade.tachiyomi.network.interceptor
 
 import android.os.SystemClock
+import eu.kanade.tachiyomi.network.RateLimitWait
+import eu.kanade.tachiyomi.network.interceptor.AdaptiveConcurrencyInterceptor.HostPermits
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
+import okhttp3.Request
 import okhttp3.Response
 import java.io.IOException
 import java.util.ArrayDeque
@@ -35,7 +38,7 @@ fun OkHttpClient.Builder.rateLimit(
     permits: Int,
     period: Long = 1,
     unit: TimeUnit = TimeUnit.SECONDS,
-) = addInterceptor(RateLimitInterceptor(null, permits, period.toDuration(unit.toDurationUnit())))
+) = addInterceptor(RateLimitInterceptor(null, permits, period.toDuration(unit.toDurationUnit())).traced())
 
 /**
  * An OkHttp interceptor that handles rate limiting.
@@ -53,7 +56,7 @@ fun OkHttpClient.Builder.rateLimit(
 fun OkHttpClient.Builder.rateLimit(
     permits: Int,
     period: Duration = 1.seconds,
-) = addInterceptor(RateLimitInterceptor(null, permits, period))
+) = addInterceptor(RateLimitInterceptor(null, permits, period).traced())
 
 /** We can probably accept domains or wildcards by comparing with [endsWith], etc. */
 @Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN")
@@ -80,6 +83,7 @@ internal class RateLimitInterceptor(
             }
         }
 
+        val waitStart = System.nanoTime()
         try {
             fairLock.acquire()
         } catch (e: InterruptedException) {
@@ -119,8 +123,9 @@ internal class RateLimitInterceptor(
         } finally {
             fairLock.release()
         }
+        request.tag(RateLimitWait::class.java)?.add(System.nanoTime() - waitStart)
 
-        val response = chain.proceed(request)
+        val response = chain.proceed(request.withHostPermits())
         if (response.networkResponse == null) { // response is cached, remove it from queue
             synchronized(requestQueue) {
                 if (requestQueue.isEmpty() || timestamp < requestQueue.first()) return@synchronized
@@ -131,4 +136,12 @@ internal class RateLimitInterceptor(
 
         return response
     }
+
+    /** Lets [AdaptiveConcurrencyInterceptor] cap the host's concurrency at the permits set with [rateLimitHost]. */
+    private fun Request.withHostPermits(): Request {
+        if (host == null) return this
+        val current = tag(HostPermits::class.java)
+        if (current != null && current.host == host && current.permits <= permits) return this
+        return newBuilder().tag(HostPermits::class.java, HostPermits(host, permits)).build()
+    }
 }
@@ -30,7 +30,7 @@ fun OkHttpClient.Builder.rateLimitHost(
     permits: Int,
     period: Long = 1,
     unit: TimeUnit = TimeUnit.SECONDS,
-) = addInterceptor(RateLimitInterceptor(httpUrl.host, permits, period.toDuration(unit.toDurationUnit())))
+) = addInterceptor(RateLimitInterceptor(httpUrl.host, permits, period.toDuration(unit.toDurationUnit())).traced())
 
 /**
  * An OkHttp interceptor that handles given url host's rate limiting.
@@ -50,7 +50,7 @@ fun OkHttpClient.Builder.rateLimitHost(
     httpUrl: HttpUrl,
     permits: Int,
     period: Duration = 1.seconds,
-): OkHttpClient.Builder = addInterceptor(RateLimitInterceptor(httpUrl.host, permits, period))
+): OkHttpClient.Builder = addInterceptor(RateLimitInterceptor(httpUrl.host, permits, period).traced())
 
 /**
  * An OkHttp interceptor that handles given url host's rate limiting.
@@ -70,4 +70,4 @@ fun OkHttpClient.Builder.rateLimitHost(
     url: String,
     permits: Int,
     period: Duration = 1.seconds,
-): OkHttpClient.Builder = addInterceptor(RateLimitInterceptor(url.toHttpUrlOrNull()?.host, permits, period))
+): OkHttpClient.Builder = addInterceptor(RateLimitInterceptor(url.toHttpUrlOrNull()?.host, permits, period).traced())
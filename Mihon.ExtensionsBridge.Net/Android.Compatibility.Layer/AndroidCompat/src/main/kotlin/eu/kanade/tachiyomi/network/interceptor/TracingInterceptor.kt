@@ -0,0 +1,23 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+import extension.bridge.tracing.Tracing
+import okhttp3.Interceptor
+import okhttp3.Response
+
+/**
+ * Records a [Tracing] span for the time [delegate] spends on a request, including everything after it in the
+ * chain. Interceptors further down get their spans nested below this one.
+ */
+class TracingInterceptor(
+    private val delegate: Interceptor,
+    private val name: String = delegate.javaClass.simpleName,
+) : Interceptor {
+    override fun intercept(chain: Interceptor.Chain): Response =
+        Tracing.span(name) { span ->
+            span?.setAttribute("url", chain.request().url)
+            delegate.intercept(chain)
+        }
+}
+
+/** Wraps this interceptor in a [TracingInterceptor]. */
+fun Interceptor.traced(): Interceptor = TracingInterceptor(this)
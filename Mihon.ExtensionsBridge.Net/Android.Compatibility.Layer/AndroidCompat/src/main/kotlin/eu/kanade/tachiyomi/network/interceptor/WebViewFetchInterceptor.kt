@@ -1,16 +1,12 @@
 package eu.kanade.tachiyomi.network.interceptor
 
-import android.annotation.SuppressLint
 import android.app.Application
 import android.os.Handler
 import android.os.Looper
 import android.util.Base64
 import android.util.Log
-import android.webkit.JavascriptInterface
-import android.webkit.WebSettings
-import android.webkit.WebView
-import android.webkit.WebViewClient
 import extension.bridge.Settings
+import extension.bridge.tracing.Tracing
 import eu.kanade.tachiyomi.network.sourceMetadata
 import kotlinx.serialization.decodeFromString
 import kotlinx.serialization.encodeToString
@@ -21,12 +17,12 @@ import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.Protocol
 import okhttp3.Request
 import okhttp3.Response
-import okhttp3.ResponseBody.Companion.toResponseBody
+import okhttp3.ResponseBody.Companion.asResponseBody
 import okio.Buffer
 import uy.kohesive.injekt.Injekt
 import uy.kohesive.injekt.api.get
+import xyz.nulldev.androidcompat.webkit.WebViewBodyChannel
 import java.io.IOException
-import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 
 /**
@@ -36,9 +32,14 @@ import java.util.concurrent.TimeUnit
  * to execute requests in a browser context. It works by:
  * 1. Optionally loading a URL in the WebView to establish a specific domain context
  * 2. Executing a JavaScript `fetch` with the original request details via `evaluateJavascript`
- * 3. Encoding the response in base64 and sending it back via a JavaScript interface
+ * 3. Uploading the raw response body through [WebViewBodyChannel] and reporting status and headers via a
+ *    JavaScript interface (falling back to a base64 encoded body when the page can't reach the channel)
  * 4. Building an OkHttp Response from the WebView response
  *
+ * WebViews are kept warm in a shared [WebViewPool] keyed by page context, so only the first request
+ * for a given origin pays for browser creation, and concurrent requests share the same page.
+ * Pool statistics are available through [poolStats].
+ *
  * **Best Practices:**
  * - In most cases, you don't need to specify `loadUrl` - the interceptor will work without it
  * - Only use `loadUrl` in special cases when you need a specific URL/domain context for the fetch
@@ -91,13 +92,19 @@ class WebViewFetchInterceptor(
     private val loadUrl: String? = null,
 ) : Interceptor {
 
-    private val handler = Handler(Looper.getMainLooper())
-    private val context: Application by lazy { Injekt.get() }
     private val interceptorName: String = this::class.simpleName ?: "WebViewFetchInterceptor"
     private val json = Json
 
     companion object {
-        private const val DELAY_MILLIS: Long = 1000
+        private val pool by lazy {
+            WebViewPool(
+                handler = Handler(Looper.getMainLooper()),
+                context = { Injekt.get<Application>() },
+            )
+        }
+
+        /** Hit rate, evictions and latency of the shared WebView pool. */
+        fun poolStats(): WebViewPoolStats = pool.stats()
     }
 
     internal class FetchResponse(
@@ -106,38 +113,9 @@ class WebViewFetchInterceptor(
         var headers: String = "",
         var bodyBase64: String = "",
         var error: String = "",
+        var body: Buffer? = null,
     )
 
-    internal class JsInterface(
-        private val latch: CountDownLatch,
-        var response: FetchResponse = FetchResponse(),
-    ) {
-        @JavascriptInterface
-        fun onResponse(
-            statusCode: Int,
-            statusMessage: String,
-            headers: String,
-            bodyBase64: String,
-        ) {
-            response.statusCode = statusCode
-            response.statusMessage = statusMessage
-            response.headers = headers
-            response.bodyBase64 = bodyBase64
-            Log.d(
-                "WebViewFetchInterceptor",
-                "WebView fetch response: status=$statusCode, message=$statusMessage, bodySize=${bodyBase64.length} bytes (base64), headersLength=${headers.length}",
-            )
-            latch.countDown()
-        }
-
-        @JavascriptInterface
-        fun onError(error: String) {
-            response.error = error
-            Log.e("WebViewFetchInterceptor", "WebView fetch error: $error")
-            latch.countDown()
-        }
-    }
-
     /**
      * Intercepts the HTTP request and either processes it through WebView or proceeds normally.
      *
@@ -148,7 +126,6 @@ class WebViewFetchInterceptor(
      * @return The HTTP response, either from WebView or from the normal chain
      * @throws IOException If the WebView request times out or encounters an error
      */
-    @Synchronized
     override fun intercept(chain: Interceptor.Chain): Response {
         val request = chain.request()
 
@@ -171,7 +148,7 @@ class WebViewFetchInterceptor(
 
         Log.d("WebViewFetchInterceptor", "Intercepting request: ${request.url}")
 
-        return proceedWithWebView(request)
+        return Tracing.span(interceptorName) { proceedWithWebView(request) }
     }
 
     /**
@@ -179,7 +156,7 @@ class WebViewFetchInterceptor(
      *
      * This method:
      * 1. Prepares the request data (URL, method, headers, body)
-     * 2. Creates a WebView and establishes context:
+     * 2. Takes a warm WebView from the pool, or creates one and establishes context:
      *    - If `loadUrl` is provided, loads that URL
      *    - Otherwise, uses the request's domain as base URL with empty HTML content
      * 3. Executes a JavaScript `fetch` with the original request details
@@ -190,12 +167,7 @@ class WebViewFetchInterceptor(
      * @return An OkHttp Response built from the WebView fetch response
      * @throws IOException If the request times out or the WebView returns an error
      */
-    @SuppressLint("SetJavaScriptEnabled", "AddJavascriptInterface")
     private fun proceedWithWebView(request: Request): Response {
-        val latch = CountDownLatch(1)
-        var webView: WebView? = null
-        val jsInterface = JsInterface(latch)
-
         // Prepare request data
         val requestUrl = request.url.toString()
         val requestMethod = request.method
@@ -226,9 +198,11 @@ class WebViewFetchInterceptor(
             "Starting WebView fetch: method=$requestMethod, url=$requestUrl, contentType=$contentType, hasBody=${bodyString.isNotEmpty()}, bodySize=${bodyString.length} chars",
         )
 
-        // JavaScript script that performs the fetch
-        val jsScript = """
+        // JavaScript script that performs the fetch, tagged with the id the pool routes the response by
+        fun jsScript(id: String) = """
             (function() {
+                const fetchId = ${id.asJsonLiteral()};
+                const bodyChannelUrl = location.origin + ${WebViewBodyChannel.PATH.asJsonLiteral()} + encodeURIComponent(fetchId);
                 const requestUrl = ${requestUrl.asJsonLiteral()};
                 const requestMethod = ${requestMethod.asJsonLiteral()};
                 const requestHeaders = ${requestHeaders.asJsonLiteral()};
@@ -265,13 +239,29 @@ class WebViewFetchInterceptor(
                     // Read body as ArrayBuffer
                     const arrayBuffer = await response.arrayBuffer();
 
-                    // Convert ArrayBuffer to base64
-                    const bytes = new Uint8Array(arrayBuffer);
-                    let binary = '';
-                    for (let i = 0; i < bytes.length; i++) {
-                        binary += String.fromCharCode(bytes[i]);
+                    // Hand the raw bytes over through the binary channel
+                    let uploaded = false;
+                    try {
+                        const upload = await fetch(bodyChannelUrl, {
+                            method: 'POST',
+                            body: arrayBuffer,
+                            cache: 'no-store',
+                        });
+                        uploaded = upload.status === 204;
+                    } catch (e) {
+                        uploaded = false;
+                    }
+
+                    // Otherwise convert ArrayBuffer to base64
+                    let bodyBase64 = '';
+                    if (!uploaded) {
+                        const bytes = new Uint8Array(arrayBuffer);
+                        let binary = '';
+                        for (let i = 0; i < bytes.length; i++) {
+                            binary += String.fromCharCode(bytes[i]);
+                        }
+                        bodyBase64 = btoa(binary);
                     }
-                    const bodyBase64 = btoa(binary);
 
                     // Convert headers to JSON string
                     const headersObj = {};
@@ -282,81 +272,60 @@ class WebViewFetchInterceptor(
 
                     // Call Android interface
                     window.android.onResponse(
-                        response.status,
+                        fetchId,
+                        String(response.status),
                         response.statusText,
                         headersJson,
                         bodyBase64
                     );
                 })
                 .catch((error) => {
-                    window.android.onError(error.toString());
+                    window.android.onError(fetchId, error.toString());
                 });
                 return true;
             })();
         """.trimIndent()
 
-        handler.post {
-            val webview = WebView(context)
-            webView = webview
-
-            with(webview.settings) {
-                javaScriptEnabled = true
-                domStorageEnabled = true
-                databaseEnabled = true
-                useWideViewPort = false
-                loadWithOverviewMode = false
-                userAgentString = request.header("User-Agent")
-                mixedContentMode = WebSettings.MIXED_CONTENT_ALWAYS_ALLOW
-            }
-
-            webview.addJavascriptInterface(jsInterface, "android")
-
-            webview.webViewClient = object : WebViewClient() {
-                override fun onPageFinished(view: WebView, url: String) {
-                    // Execute script after page loads
-                    view.evaluateJavascript(jsScript) { result ->
-                        // Handle JavaScript errors here
-                        if (result == null) {
-                            Log.e("WebViewFetchInterceptor", "JavaScript evaluation returned null")
-                            jsInterface.onError("Error executing JavaScript script")
-                        }
+        // Establish context by using the same domain as the request
+        val baseUrl = loadUrl ?: "${request.url.scheme}://${request.url.host}/"
+        val start = System.nanoTime()
+        val entry = pool.acquire(baseUrl, userAgent, timeout)
+        val fetchResponse =
+            try {
+                val fetch =
+                    entry.evaluate { id ->
+                        WebViewBodyChannel.open(id)
+                        jsScript(id)
+                    }
+                try {
+                    if (!fetch.latch.await(timeout, TimeUnit.SECONDS)) {
+                        Log.e(
+                            "WebViewFetchInterceptor",
+                            "Timeout waiting for WebView response after ${timeout}s",
+                        )
+                        entry.markUnhealthy()
+                        throw IOException("Timeout executing request in WebView")
                     }
+                    fetch.response.also { it.body = WebViewBodyChannel.take(fetch.id) }
+                } finally {
+                    WebViewBodyChannel.take(fetch.id)
+                    entry.finish(fetch)
                 }
+            } finally {
+                pool.release(entry)
+                pool.recordFetch(System.nanoTime() - start)
             }
 
-            // Establish context by using the same domain as the request
-            val baseUrl = loadUrl ?: "${request.url.scheme}://${request.url.host}/"
-            webview.loadDataWithBaseURL(baseUrl, " ", "text/html", null, null)
-        }
-
-        // Wait for response
-        val success = latch.await(timeout, TimeUnit.SECONDS)
-
-        handler.postDelayed(
-            { webView?.destroy() },
-            DELAY_MILLIS,
-        )
-
-        if (!success) {
-            Log.e(
-                "WebViewFetchInterceptor",
-                "Timeout waiting for WebView response after ${timeout}s",
-            )
-            throw IOException("Timeout executing request in WebView")
-        }
-
-        val fetchResponse = jsInterface.response
-
         if (fetchResponse.error.isNotEmpty()) {
             Log.e("WebViewFetchInterceptor", "WebView returned error: ${fetchResponse.error}")
             throw IOException("WebView error: ${fetchResponse.error}")
         }
 
-        // Decode body from base64
-        val bodyBytes = if (fetchResponse.bodyBase64.isNotEmpty()) {
-            Base64.decode(fetchResponse.bodyBase64, Base64.NO_WRAP)
-        } else {
-            ByteArray(0)
+        // Use the uploaded bytes as is, or decode the fallback base64 body
+        val body = fetchResponse.body ?: Buffer().apply {
+            if (fetchResponse.bodyBase64.isNotEmpty()) {
+                write(Base64.decode(fetchResponse.bodyBase64, Base64.NO_WRAP))
+            }
         }
 
         // Convert JSON headers to OkHttp Headers
@@ -379,7 +348,7 @@ class WebViewFetchInterceptor(
 
         Log.d(
             "WebViewFetchInterceptor",
-            "Building response: statusCode=${fetchResponse.statusCode}, statusMessage=${fetchResponse.statusMessage}, bodySize=${bodyBytes.size} bytes, contentType=$contentTypeHeader",
+            "Building response: statusCode=${fetchResponse.statusCode}, statusMessage=${fetchResponse.statusMessage}, bodySize=${body.size} bytes, binary=${fetchResponse.body != null}, contentType=$contentTypeHeader",
         )
 
         // Build Response
@@ -389,7 +358,7 @@ class WebViewFetchInterceptor(
             .code(fetchResponse.statusCode)
             .message(fetchResponse.statusMessage)
             .headers(responseHeaders)
-            .body(bodyBytes.toResponseBody(mediaType))
+            .body(body.asResponseBody(mediaType, body.size))
             .build()
     }
 }
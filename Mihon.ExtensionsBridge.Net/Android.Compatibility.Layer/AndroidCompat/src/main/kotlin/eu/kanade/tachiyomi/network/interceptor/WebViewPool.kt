@@ -0,0 +1,407 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+import android.annotation.SuppressLint
+import android.app.Application
+import android.os.Handler
+import android.util.Log
+import android.webkit.JavascriptInterface
+import android.webkit.WebSettings
+import android.webkit.WebView
+import android.webkit.WebViewClient
+import java.io.IOException
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Snapshot of the shared WebView pool used by [WebViewFetchInterceptor].
+ */
+data class WebViewPoolStats(
+    val size: Int,
+    val hits: Long,
+    val misses: Long,
+    val evictions: Long,
+    val fetches: Long,
+    val averageFetchMillis: Double,
+    val averageWarmUpMillis: Double,
+) {
+    val hitRate: Double
+        get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+}
+
+/**
+ * A bounded pool of warm [WebView]s used by [WebViewFetchInterceptor], keyed by the page context
+ * (base URL and user agent) the fetches run in.
+ *
+ * Creating a WebView spins up a whole CEF browser, so views are kept loaded between requests and
+ * shared by concurrent fetches: every fetch is tagged with an id and the single `android`
+ * JavaScript interface of the view routes each response back to its waiter.
+ *
+ * Views idle for longer than [idleTimeoutMillis] are destroyed, and a view that has been idle for a
+ * while is probed with a trivial script before being handed out again.
+ */
+internal class WebViewPool(
+    private val handler: Handler,
+    private val context: () -> Application,
+    private val maxSize: Int = 4,
+    private val idleTimeoutMillis: Long = 60_000,
+) {
+    private val entries = LinkedHashMap<Key, Entry>()
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+    private val fetches = AtomicLong()
+    private val fetchNanos = AtomicLong()
+    private val warmUpNanos = AtomicLong()
+
+    private var sweepScheduled = false
+
+    internal data class Key(
+        val baseUrl: String,
+        val userAgent: String,
+    )
+
+    internal class PendingFetch(
+        val id: String,
+    ) {
+        val latch = CountDownLatch(1)
+
+        @Volatile
+        var response: WebViewFetchInterceptor.FetchResponse = WebViewFetchInterceptor.FetchResponse()
+
+        fun complete(response: WebViewFetchInterceptor.FetchResponse) {
+            this.response = response
+            latch.countDown()
+        }
+
+        fun fail(error: String) {
+            complete(WebViewFetchInterceptor.FetchResponse(error = error))
+        }
+    }
+
+    /**
+     * JavaScript bridge shared by all fetches running in one view.
+     * Arguments are passed as strings so they survive the CEF message router unchanged.
+     */
+    internal class JsInterface(
+        private val pending: ConcurrentHashMap<String, PendingFetch>,
+    ) {
+        @JavascriptInterface
+        fun onResponse(
+            id: String,
+            statusCode: String,
+            statusMessage: String,
+            headers: String,
+            bodyBase64: String,
+        ) {
+            Log.d(
+                TAG,
+                "WebView fetch response: id=$id, status=$statusCode, message=$statusMessage, bodySize=${bodyBase64.length} bytes (base64), headersLength=${headers.length}",
+            )
+            pending[id]?.complete(
+                WebViewFetchInterceptor.FetchResponse(
+                    statusCode = statusCode.toIntOrNull() ?: 0,
+                    statusMessage = statusMessage,
+                    headers = headers,
+                    bodyBase64 = bodyBase64,
+                ),
+            )
+        }
+
+        @JavascriptInterface
+        fun onError(
+            id: String,
+            error: String,
+        ) {
+            Log.e(TAG, "WebView fetch error: id=$id, $error")
+            pending[id]?.fail(error)
+        }
+    }
+
+    inner class Entry internal constructor(
+        private val key: Key,
+        val pooled: Boolean,
+    ) {
+        private val ready = CountDownLatch(1)
+        private val pending = ConcurrentHashMap<String, PendingFetch>()
+        private val inFlight = AtomicInteger()
+
+        @Volatile
+        private var webView: WebView? = null
+
+        @Volatile
+        var healthy = true
+            private set
+
+        @Volatile
+        var lastUsed = System.nanoTime()
+            private set
+
+        @SuppressLint("SetJavaScriptEnabled", "AddJavascriptInterface")
+        internal fun create() {
+            handler.post {
+                val webview = WebView(context())
+                webView = webview
+
+                with(webview.settings) {
+                    javaScriptEnabled = true
+                    domStorageEnabled = true
+                    databaseEnabled = true
+                    useWideViewPort = false
+                    loadWithOverviewMode = false
+                    userAgentString = key.userAgent.ifEmpty { null }
+                    mixedContentMode = WebSettings.MIXED_CONTENT_ALWAYS_ALLOW
+                }
+
+                webview.addJavascriptInterface(JsInterface(pending), "android")
+
+                webview.webViewClient =
+                    object : WebViewClient() {
+                        override fun onPageFinished(
+                            view: WebView,
+                            url: String,
+                        ) {
+                            ready.countDown()
+                        }
+                    }
+
+                webview.loadDataWithBaseURL(key.baseUrl, " ", "text/html", null, null)
+            }
+        }
+
+        internal fun awaitReady(timeoutSeconds: Long): Boolean = ready.await(timeoutSeconds, TimeUnit.SECONDS)
+
+        internal val isBusy: Boolean
+            get() = inFlight.get() > 0
+
+        internal fun retain() {
+            inFlight.incrementAndGet()
+            lastUsed = System.nanoTime()
+        }
+
+        internal fun release() {
+            lastUsed = System.nanoTime()
+            inFlight.decrementAndGet()
+        }
+
+        fun markUnhealthy() {
+            healthy = false
+        }
+
+        /**
+         * Runs [script] (built by [scriptFor] with the id of the returned fetch) in the page context.
+         */
+        fun evaluate(scriptFor: (String) -> String): PendingFetch {
+            val fetch = PendingFetch(UUID.randomUUID().toString())
+            pending[fetch.id] = fetch
+            val script = scriptFor(fetch.id)
+            handler.post {
+                val view = webView
+                if (view == null) {
+                    fetch.fail("WebView was destroyed")
+                    return@post
+                }
+                view.evaluateJavascript(script) { result ->
+                    if (result == null) {
+                        Log.e(TAG, "JavaScript evaluation returned null")
+                        fetch.fail("Error executing JavaScript script")
+                    }
+                }
+            }
+            return fetch
+        }
+
+        fun finish(fetch: PendingFetch) {
+            pending.remove(fetch.id)
+        }
+
+        /** Checks that the page context still executes scripts, used before reusing an idle view. */
+        internal fun probe(timeoutMillis: Long): Boolean {
+            val latch = CountDownLatch(1)
+            var alive = false
+            handler.post {
+                val view = webView
+                if (view == null) {
+                    latch.countDown()
+                    return@post
+                }
+                view.evaluateJavascript("return 1") { result ->
+                    alive = result != null
+                    latch.countDown()
+                }
+            }
+            return latch.await(timeoutMillis, TimeUnit.MILLISECONDS) && alive
+        }
+
+        internal fun destroy(delayMillis: Long) {
+            healthy = false
+            pending.values.forEach { it.fail("WebView was destroyed") }
+            handler.postDelayed(
+                {
+                    webView?.destroy()
+                    webView = null
+                },
+                delayMillis,
+            )
+        }
+    }
+
+    /**
+     * Returns a view whose page context for [baseUrl] has finished loading, creating one if needed.
+     * Callers must pair this with [release].
+     *
+     * @throws IOException if a new view does not finish loading within [timeoutSeconds]
+     */
+    fun acquire(
+        baseUrl: String,
+        userAgent: String,
+        timeoutSeconds: Long,
+    ): Entry {
+        val key = Key(baseUrl, userAgent)
+        val start = System.nanoTime()
+
+        var stale = false
+        val candidate =
+            synchronized(entries) {
+                entries[key]?.also {
+                    // Checked before retain(), which counts as a use
+                    stale = isStale(it)
+                    it.retain()
+                }
+            }
+        if (candidate != null) {
+            if (candidate.healthy && (!stale || candidate.probe(PROBE_TIMEOUT_MILLIS))) {
+                if (candidate.awaitReady(timeoutSeconds)) {
+                    hits.incrementAndGet()
+                    return candidate
+                }
+            }
+            candidate.markUnhealthy()
+            release(candidate)
+        }
+
+        misses.incrementAndGet()
+        val entry =
+            synchronized(entries) {
+                val existing = entries[key]
+                if (existing != null && existing.healthy) {
+                    // another caller created it while we were probing
+                    existing.retain()
+                    return@synchronized existing
+                }
+                if (existing != null) {
+                    entries.remove(key)
+                    evictions.incrementAndGet()
+                    // Fetches still running on it fail when it's destroyed, the last release() does that instead
+                    if (!existing.isBusy) existing.destroy(DESTROY_DELAY_MILLIS)
+                }
+                val pooled = entries.size < maxSize || evictIdle()
+                Entry(key, pooled).also {
+                    it.retain()
+                    it.create()
+                    if (pooled) {
+                        entries[key] = it
+                        scheduleSweep()
+                    }
+                }
+            }
+
+        if (!entry.awaitReady(timeoutSeconds)) {
+            entry.markUnhealthy()
+            release(entry)
+            throw IOException("Timeout loading WebView context for $baseUrl")
+        }
+        warmUpNanos.addAndGet(System.nanoTime() - start)
+        return entry
+    }
+
+    /** Hands a view back, destroying it if it is unpooled or went bad. */
+    fun release(entry: Entry) {
+        entry.release()
+        if (entry.isBusy) return
+        if (!entry.pooled) {
+            entry.destroy(DESTROY_DELAY_MILLIS)
+            return
+        }
+        if (!entry.healthy) {
+            synchronized(entries) {
+                if (entries.values.remove(entry)) {
+                    evictions.incrementAndGet()
+                }
+            }
+            entry.destroy(DESTROY_DELAY_MILLIS)
+        }
+    }
+
+    fun recordFetch(nanos: Long) {
+        fetches.incrementAndGet()
+        fetchNanos.addAndGet(nanos)
+    }
+
+    fun stats(): WebViewPoolStats {
+        val size = synchronized(entries) { entries.size }
+        val fetchCount = fetches.get()
+        val missCount = misses.get()
+        return WebViewPoolStats(
+            size = size,
+            hits = hits.get(),
+            misses = missCount,
+            evictions = evictions.get(),
+            fetches = fetchCount,
+            averageFetchMillis = if (fetchCount == 0L) 0.0 else fetchNanos.get() / fetchCount / 1_000_000.0,
+            averageWarmUpMillis = if (missCount == 0L) 0.0 else warmUpNanos.get() / missCount / 1_000_000.0,
+        )
+    }
+
+    private fun isStale(entry: Entry): Boolean =
+        System.nanoTime() - entry.lastUsed > TimeUnit.MILLISECONDS.toNanos(PROBE_AFTER_IDLE_MILLIS)
+
+    /** Frees a slot by evicting the least recently used idle view. Must hold the [entries] lock. */
+    private fun evictIdle(): Boolean {
+        val victim = entries.values.filter { !it.isBusy }.minByOrNull { it.lastUsed } ?: return false
+        entries.values.remove(victim)
+        evictions.incrementAndGet()
+        victim.destroy(DESTROY_DELAY_MILLIS)
+        return true
+    }
+
+    /** Must hold the [entries] lock. */
+    private fun scheduleSweep() {
+        if (sweepScheduled) return
+        sweepScheduled = true
+        handler.postDelayed(::sweep, idleTimeoutMillis / 2)
+    }
+
+    private fun sweep() {
+        val deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)
+        synchronized(entries) {
+            sweepScheduled = false
+            val iterator = entries.values.iterator()
+            while (iterator.hasNext()) {
+                val entry = iterator.next()
+                if (!entry.isBusy && (entry.lastUsed < deadline || !entry.healthy)) {
+                    iterator.remove()
+                    evictions.incrementAndGet()
+                    Log.v(TAG, "Evicting idle WebView")
+                    entry.destroy(0)
+                }
+            }
+            if (entries.isNotEmpty()) {
+                scheduleSweep()
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "WebViewPool"
+
+        // Give in-flight CEF callbacks time to land before tearing the browser down
+        private const val DESTROY_DELAY_MILLIS: Long = 1000
+        private const val PROBE_AFTER_IDLE_MILLIS: Long = 15_000
+        private const val PROBE_TIMEOUT_MILLIS: Long = 2_000
+    }
+}
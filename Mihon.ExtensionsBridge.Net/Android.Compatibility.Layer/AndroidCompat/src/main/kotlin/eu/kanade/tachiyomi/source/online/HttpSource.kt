@@ -2,9 +2,11 @@ package eu.kanade.tachiyomi.source.online
 
 import eu.kanade.tachiyomi.network.GET
 import eu.kanade.tachiyomi.network.NetworkHelper
+import eu.kanade.tachiyomi.network.SourceRequestMetadata
 import eu.kanade.tachiyomi.network.asObservableSuccess
 import eu.kanade.tachiyomi.network.awaitSuccess
 import eu.kanade.tachiyomi.network.newCachelessCallWithProgress
+import eu.kanade.tachiyomi.network.withSourceMetadata
 import eu.kanade.tachiyomi.source.CatalogueSource
 import eu.kanade.tachiyomi.source.model.FilterList
 import eu.kanade.tachiyomi.source.model.MangasPage
@@ -15,8 +17,16 @@ import okhttp3.Headers
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.Response
+import okhttp3.ResponseBody
+import okhttp3.ResponseBody.Companion.asResponseBody
+import okio.Buffer
 import rx.Observable
 import extension.bridge.awaitSingle
+import extension.bridge.tracing.Tracing
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
 import uy.kohesive.injekt.injectLazy
 import java.net.URI
 import java.net.URISyntaxException
@@ -66,6 +76,20 @@ abstract class HttpSource : CatalogueSource {
     open val client: OkHttpClient
         get() = network.client
 
+    /**
+     * Package name of the extension this source was loaded from, set by the extension loader.
+     */
+    internal var extensionPackageName: String? = null
+
+    /**
+     * Tags the requests made by this class so interceptors and request metrics can tell the sources apart.
+     */
+    private val requestMetadata by lazy {
+        SourceRequestMetadata(extensionPackageName ?: javaClass.`package`?.name.orEmpty(), name)
+    }
+
+    private fun Request.forSource(): Request = withSourceMetadata(requestMetadata)
+
     private fun generateId(): Long = generateId("${name.lowercase()}/$lang/$versionId")
 
     /**
@@ -112,6 +136,28 @@ abstract class HttpSource : CatalogueSource {
      */
     override fun toString() = "$name (${lang.uppercase()})"
 
+    override suspend fun getPopularManga(page: Int): MangasPage = Tracing.traced("getPopularManga") { super.getPopularManga(page) }
+
+    override suspend fun getSearchManga(
+        page: Int,
+        query: String,
+        filters: FilterList,
+    ): MangasPage = Tracing.traced("getSearchManga") { super.getSearchManga(page, query, filters) }
+
+    override suspend fun getLatestUpdates(page: Int): MangasPage = Tracing.traced("getLatestUpdates") { super.getLatestUpdates(page) }
+
+    /**
+     * Parses the responses of this observable in a [Tracing] span, below the span that is current while the
+     * observable is built (usually the one of the `get*` entry point).
+     */
+    private inline fun <T> Observable<Response>.parseTraced(
+        name: String,
+        crossinline parse: (Response) -> T,
+    ): Observable<T> {
+        val parent = Tracing.current()
+        return map { response -> Tracing.span(name, parent) { parse(response) } }
+    }
+
     /**
      * Returns an observable containing a page with a list of manga. Normally it's not needed to
      * override this method.
@@ -121,9 +167,9 @@ abstract class HttpSource : CatalogueSource {
     @Deprecated("Use the non-RxJava API instead", replaceWith = ReplaceWith("getPopularManga"))
     override fun fetchPopularManga(page: Int): Observable<MangasPage> =
         client
-            .newCall(popularMangaRequest(page))
+            .newCall(popularMangaRequest(page).forSource())
             .asObservableSuccess()
-            .map { response ->
+            .parseTraced("popularMangaParse") { response ->
                 popularMangaParse(response)
             }
 
@@ -158,13 +204,13 @@ abstract class HttpSource : CatalogueSource {
         Observable
             .defer {
                 try {
-                    client.newCall(searchMangaRequest(page, query, filters)).asObservableSuccess()
+                    client.newCall(searchMangaRequest(page, query, filters).forSource()).asObservableSuccess()
                 } catch (e: NoClassDefFoundError) {
                     // RxJava doesn't handle Errors, which tends to happen during global searches
                     // if an old extension using non-existent classes is still around
                     throw RuntimeException(e)
                 }
-            }.map { response ->
+            }.parseTraced("searchMangaParse") { response ->
                 searchMangaParse(response)
             }
 
@@ -196,9 +242,9 @@ abstract class HttpSource : CatalogueSource {
     @Deprecated("Use the non-RxJava API instead", replaceWith = ReplaceWith("getLatestUpdates"))
     override fun fetchLatestUpdates(page: Int): Observable<MangasPage> =
         client
-            .newCall(latestUpdatesRequest(page))
+            .newCall(latestUpdatesRequest(page).forSource())
             .asObservableSuccess()
-            .map { response ->
+            .parseTraced("latestUpdatesParse") { response ->
                 latestUpdatesParse(response)
             }
 
@@ -224,14 +270,15 @@ abstract class HttpSource : CatalogueSource {
      * @return the updated manga.
      */
     @Suppress("DEPRECATION")
-    override suspend fun getMangaDetails(manga: SManga): SManga = fetchMangaDetails(manga).awaitSingle()
+    override suspend fun getMangaDetails(manga: SManga): SManga =
+        Tracing.traced("getMangaDetails") { fetchMangaDetails(manga).awaitSingle() }
 
     @Deprecated("Use the non-RxJava API instead", replaceWith = ReplaceWith("getMangaDetails"))
     override fun fetchMangaDetails(manga: SManga): Observable<SManga> =
         client
-            .newCall(mangaDetailsRequest(manga))
+            .newCall(mangaDetailsRequest(manga).forSource())
             .asObservableSuccess()
-            .map { response ->
+            .parseTraced("mangaDetailsParse") { response ->
                 mangaDetailsParse(response).apply { initialized = true }
             }
 
@@ -264,15 +311,15 @@ abstract class HttpSource : CatalogueSource {
             throw LicensedMangaChaptersException()
         }
 
-        return fetchChapterList(manga).awaitSingle()
+        return Tracing.traced("getChapterList") { fetchChapterList(manga).awaitSingle() }
     }
 
     @Deprecated("Use the non-RxJava API instead", replaceWith = ReplaceWith("getChapterList"))
     override fun fetchChapterList(manga: SManga): Observable<List<SChapter>> =
         client
-            .newCall(chapterListRequest(manga))
+            .newCall(chapterListRequest(manga).forSource())
             .asObservableSuccess()
-            .map { response ->
+            .parseTraced("chapterListParse") { response ->
                 chapterListParse(response)
             }
 
@@ -300,14 +347,15 @@ abstract class HttpSource : CatalogueSource {
      * @return the pages for the chapter.
      */
     @Suppress("DEPRECATION")
-    override suspend fun getPageList(chapter: SChapter): List<Page> = fetchPageList(chapter).awaitSingle()
+    override suspend fun getPageList(chapter: SChapter): List<Page> =
+        Tracing.traced("getPageList") { fetchPageList(chapter).awaitSingle() }
 
     @Deprecated("Use the non-RxJava API instead", replaceWith = ReplaceWith("getPageList"))
     override fun fetchPageList(chapter: SChapter): Observable<List<Page>> =
         client
-            .newCall(pageListRequest(chapter))
+            .newCall(pageListRequest(chapter).forSource())
             .asObservableSuccess()
-            .map { response ->
+            .parseTraced("pageListParse") { response ->
                 pageListParse(response)
             }
 
@@ -334,14 +382,14 @@ abstract class HttpSource : CatalogueSource {
      * @param page the page whose source image has to be fetched.
      */
     @Suppress("DEPRECATION")
-    open suspend fun getImageUrl(page: Page): String = fetchImageUrl(page).awaitSingle()
+    open suspend fun getImageUrl(page: Page): String = Tracing.traced("getImageUrl") { fetchImageUrl(page).awaitSingle() }
 
     @Deprecated("Use the non-RxJava API instead", replaceWith = ReplaceWith("getImageUrl"))
     open fun fetchImageUrl(page: Page): Observable<String> =
         client
-            .newCall(imageUrlRequest(page))
+            .newCall(imageUrlRequest(page).forSource())
             .asObservableSuccess()
-            .map { imageUrlParse(it) }
+            .parseTraced("imageUrlParse") { imageUrlParse(it) }
 
     /**
      * Returns the request for getting the url to the source image. Override only if it's needed to
@@ -366,9 +414,11 @@ abstract class HttpSource : CatalogueSource {
      * @param page the page whose source image has to be downloaded.
      */
     open suspend fun getImage(page: Page): Response =
-        client
-            .newCachelessCallWithProgress(imageRequest(page), page)
-            .awaitSuccess()
+        Tracing.traced("getImage") {
+            client
+                .newCachelessCallWithProgress(imageRequest(page).forSource(), page)
+                .awaitSuccess()
+        }
 
     /**
      * Returns the request for getting the source image. Override only if it's needed to override
@@ -378,6 +428,63 @@ abstract class HttpSource : CatalogueSource {
      */
     protected open fun imageRequest(page: Page): Request = GET(page.imageUrl!!, headers)
 
+    /**
+     * Downloads the images of a chapter with up to [concurrency] requests in flight and hands them to [sink]
+     * in page order.
+     *
+     * Pages without an [Page.imageUrl] are resolved through [getImageUrl] first. Downloads go through
+     * [getImage] and therefore [client], so host rate limits installed on it still apply, and each page reports
+     * its progress through [Page.update]. Bodies that complete ahead of their turn are kept in memory, at
+     * most [concurrency] of them at a time. A failing page cancels the remaining downloads.
+     *
+     * @param chapter the chapter whose pages are downloaded.
+     * @param pages the pages to download, fetched with [getPageList] if null.
+     * @param concurrency how many pages are downloaded at once.
+     * @param sink receives every page with its image body, which is closed once it returns.
+     */
+    suspend fun prefetchPages(
+        chapter: SChapter,
+        pages: List<Page>? = null,
+        concurrency: Int = 4,
+        sink: suspend (page: Page, body: ResponseBody) -> Unit,
+    ) {
+        require(concurrency > 0) { "concurrency must be positive, was $concurrency" }
+        Tracing.traced("prefetchPages") { span ->
+            span?.setAttribute("chapter", chapter.url)
+            prefetch(pages ?: getPageList(chapter), concurrency, sink)
+        }
+    }
+
+    private suspend fun prefetch(
+        pages: List<Page>,
+        concurrency: Int,
+        sink: suspend (page: Page, body: ResponseBody) -> Unit,
+    ) {
+        val queue = pages.iterator()
+        coroutineScope {
+            val downloads = ArrayDeque<Pair<Page, Deferred<ResponseBody>>>()
+            while (queue.hasNext() || downloads.isNotEmpty()) {
+                while (queue.hasNext() && downloads.size < concurrency) {
+                    val page = queue.next()
+                    downloads.addLast(page to async(Dispatchers.IO) { downloadPage(page) })
+                }
+                val (page, download) = downloads.removeFirst()
+                download.await().use { sink(page, it) }
+            }
+        }
+    }
+
+    private suspend fun downloadPage(page: Page): ResponseBody {
+        if (page.imageUrl.isNullOrEmpty()) {
+            page.imageUrl = getImageUrl(page)
+        }
+        return getImage(page).use { response ->
+            val body = Buffer()
+            body.writeAll(response.body.source())
+            body.asResponseBody(response.body.contentType(), body.size)
+        }
+    }
+
     /**
      * Assigns the url of the chapter without the scheme and domain. It saves some redundancy from
      * database and the urls could still work after a domain change.
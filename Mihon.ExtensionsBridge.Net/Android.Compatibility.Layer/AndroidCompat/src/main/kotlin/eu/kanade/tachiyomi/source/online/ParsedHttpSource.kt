@@ -8,11 +8,22 @@ import eu.kanade.tachiyomi.util.asJsoup
 import okhttp3.Response
 import org.jsoup.nodes.Document
 import org.jsoup.nodes.Element
+import org.jsoup.select.Elements
+import org.jsoup.select.Evaluator
+import org.jsoup.select.QueryParser
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * A simple implementation for sources from a website using Jsoup, an HTML parser.
  */
 abstract class ParsedHttpSource : HttpSource() {
+    // Selectors rarely change for a source, so each query is only parsed once
+    private val evaluators = ConcurrentHashMap<String, Evaluator>()
+
+    private fun evaluator(query: String): Evaluator = evaluators.getOrPut(query) { QueryParser.parse(query) }
+
+    private fun Element.selectCompiled(query: String): Elements = select(evaluator(query))
+
     /**
      * Parses the response from the site and returns a [MangasPage] object.
      *
@@ -22,13 +33,13 @@ abstract class ParsedHttpSource : HttpSource() {
         val document = response.asJsoup()
 
         val mangas =
-            document.select(popularMangaSelector()).map { element ->
+            document.selectCompiled(popularMangaSelector()).map { element ->
                 popularMangaFromElement(element)
             }
 
         val hasNextPage =
             popularMangaNextPageSelector()?.let { selector ->
-                document.select(selector).first()
+                document.selectFirst(evaluator(selector))
             } != null
 
         return MangasPage(mangas, hasNextPage)
@@ -62,13 +73,13 @@ abstract class ParsedHttpSource : HttpSource() {
         val document = response.asJsoup()
 
         val mangas =
-            document.select(searchMangaSelector()).map { element ->
+            document.selectCompiled(searchMangaSelector()).map { element ->
                 searchMangaFromElement(element)
             }
 
         val hasNextPage =
             searchMangaNextPageSelector()?.let { selector ->
-                document.select(selector).first()
+                document.selectFirst(evaluator(selector))
             } != null
 
         return MangasPage(mangas, hasNextPage)
@@ -102,13 +113,13 @@ abstract class ParsedHttpSource : HttpSource() {
         val document = response.asJsoup()
 
         val mangas =
-            document.select(latestUpdatesSelector()).map { element ->
+            document.selectCompiled(latestUpdatesSelector()).map { element ->
                 latestUpdatesFromElement(element)
             }
 
         val hasNextPage =
             latestUpdatesNextPageSelector()?.let { selector ->
-                document.select(selector).first()
+                document.selectFirst(evaluator(selector))
             } != null
 
         return MangasPage(mangas, hasNextPage)
@@ -154,7 +165,7 @@ abstract class ParsedHttpSource : HttpSource() {
      */
     override fun chapterListParse(response: Response): List<SChapter> {
         val document = response.asJsoup()
-        return document.select(chapterListSelector()).map { chapterFromElement(it) }
+        return document.selectCompiled(chapterListSelector()).map { chapterFromElement(it) }
     }
 
     /**
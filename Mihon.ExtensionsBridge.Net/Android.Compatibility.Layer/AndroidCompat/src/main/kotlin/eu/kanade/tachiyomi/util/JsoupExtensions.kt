@@ -19,6 +19,13 @@ fun Element.attrOrText(css: String): String = if (css != "text") attr(css) else
 
 /**
  * Returns a Jsoup document for this response.
+ *
+ * The body is parsed straight from the stream. The charset declared in the `Content-Type` header is used if
+ * present, otherwise Jsoup detects it from the BOM or the document's meta tags.
+ *
  * @param html the body of the response. Use only if the body was read before calling this method.
  */
-fun Response.asJsoup(html: String? = null): Document = Jsoup.parse(html ?: body.string(), request.url.toString())
+fun Response.asJsoup(html: String? = null): Document {
+    if (html != null) return Jsoup.parse(html, request.url.toString())
+    return body.use { Jsoup.parse(it.byteStream(), it.contentType()?.charset()?.name(), request.url.toString()) }
+}
@@ -1,22 +1,13 @@
 package eu.kanade.tachiyomi.util.chapter
 
 /**
- * -R> = regex conversion.
+ * Parses chapter numbers out of chapter names.
+ *
+ * Numbers follow the pattern `([0-9]+)(\.[0-9]+)?(\.?[a-z]+)?`, e.g. `12`, `12.5`, `12a` or `12.extra`, and are
+ * found with a hand-written scanner instead of regexes since this runs for every chapter of every refreshed
+ * manga.
  */
 object ChapterRecognition {
-    private const val NUMBER_PATTERN = """([0-9]+)(\.[0-9]+)?(\.?[a-z]+)?"""
-
-    /**
-     * All cases with Ch.xx
-     * Mokushiroku Alice Vol.1 Ch. 4: Misrepresentation -R> 4
-     */
-    private val basic = Regex("""(?<=ch\.) *$NUMBER_PATTERN""")
-
-    /**
-     * Example: Bleach 567: Down With Snowwhite -R> 567
-     */
-    private val number = Regex(NUMBER_PATTERN)
-
     /**
      * Regex used to remove unwanted tags
      * Example Prison School 12 v.1 vol004 version1243 volume64 -R> Prison School 12
@@ -24,10 +15,13 @@ object ChapterRecognition {
     private val unwanted = Regex("""\b(?:v|ver|vol|version|volume|season|s)[^a-z]?[0-9]+""")
 
     /**
-     * Regex used to remove unwanted whitespace
+     * Whitespace before these is removed
      * Example One Piece 12 special -R> One Piece 12special
      */
-    private val unwantedWhiteSpace = Regex("""\s(?=extra|special|omake)""")
+    private val suffixes = arrayOf("extra", "special", "omake")
+
+    /** Exact powers of ten, for decimals short enough to be computed without rounding errors. */
+    private val powersOfTen = DoubleArray(16).apply { this[0] = 1.0; for (i in 1 until size) this[i] = this[i - 1] * 10 }
 
     fun parseChapterNumber(
         mangaTitle: String,
@@ -39,87 +33,154 @@ object ChapterRecognition {
             return chapterNumber
         }
 
-        // Get chapter title with lower case
-        val cleanChapterName =
-            chapterName
-                .lowercase()
-                // Remove manga title from chapter title.
-                .replace(mangaTitle.lowercase(), "")
-                .trim()
-                // Remove comma's or hyphens.
-                .replace(',', '.')
-                .replace('-', '.')
-                // Remove unwanted white spaces.
-                .replace(unwantedWhiteSpace, "")
-
-        val numberMatch = number.findAll(cleanChapterName)
-
-        when {
-            numberMatch.none() -> {
-                return chapterNumber ?: -1.0
-            }
+        return parse(mangaTitle.lowercase(), chapterName) ?: chapterNumber ?: -1.0
+    }
 
-            numberMatch.count() > 1 -> {
-                // Remove unwanted tags.
-                unwanted.replace(cleanChapterName, "").let { name ->
-                    // Check base case ch.xx
-                    basic.find(name)?.let { return getChapterNumberFromMatch(it) }
+    /**
+     * Same as [parseChapterNumber] for all [chapterNames] of a manga, -1 for the names without a number.
+     */
+    fun parseChapterNumbers(
+        mangaTitle: String,
+        chapterNames: List<String>,
+    ): DoubleArray {
+        val title = mangaTitle.lowercase()
+        return DoubleArray(chapterNames.size) { parse(title, chapterNames[it]) ?: -1.0 }
+    }
 
-                    // need to find again first number might already removed
-                    number.find(name)?.let { return getChapterNumberFromMatch(it) }
-                }
-            }
+    private fun parse(
+        lowercaseTitle: String,
+        chapterName: String,
+    ): Double? {
+        val name = clean(lowercaseTitle, chapterName)
+
+        val first = nextNumber(name, 0)
+        if (first == -1) return null
+
+        if (nextNumber(name, numberEnd(name, first)) != -1) {
+            // Remove unwanted tags.
+            val tagless = unwanted.replace(name, "")
+            // Check base case ch.xx
+            val basic = basicNumber(tagless)
+            if (basic != -1) return numberAt(tagless, basic)
+            // need to find again first number might already removed
+            val number = nextNumber(tagless, 0)
+            if (number != -1) return numberAt(tagless, number)
         }
 
         // return the first number encountered
-        return getChapterNumberFromMatch(numberMatch.first())
+        return numberAt(name, first)
     }
 
     /**
-     * Check if chapter number is found and return it
-     * @param match result of regex
-     * @return chapter number if found else null
+     * Lower cases the name, removes the manga title from it and trims it, then in a single pass turns commas and
+     * hyphens into dots and drops the whitespace before [suffixes].
      */
-    private fun getChapterNumberFromMatch(match: MatchResult): Double =
-        match.let {
-            val initial = it.groups[1]?.value?.toDouble()!!
-            val subChapterDecimal = it.groups[2]?.value
-            val subChapterAlpha = it.groups[3]?.value
-            val addition = checkForDecimal(subChapterDecimal, subChapterAlpha)
-            initial.plus(addition)
+    private fun clean(
+        lowercaseTitle: String,
+        chapterName: String,
+    ): String {
+        var name = chapterName.lowercase()
+        if (lowercaseTitle.isNotEmpty()) name = name.replace(lowercaseTitle, "")
+        name = name.trim()
+
+        var cleaned: CharArray? = null
+        var length = 0
+        for (index in name.indices) {
+            val char = name[index]
+            val replacement =
+                when {
+                    char == ',' || char == '-' -> '.'
+                    char.isRegexWhitespace() && suffixes.any { name.startsWith(it, index + 1) } -> null
+                    else -> char
+                }
+            if (replacement != char && cleaned == null) {
+                // Only copy once something actually changes
+                cleaned = CharArray(name.length)
+                name.toCharArray(cleaned, 0, 0, index)
+                length = index
+            }
+            if (cleaned != null && replacement != null) cleaned[length++] = replacement
+        }
+        return if (cleaned == null) name else String(cleaned, 0, length)
+    }
+
+    /** Start of the first number at or after [from], -1 if there is none. */
+    private fun nextNumber(
+        text: String,
+        from: Int,
+    ): Int {
+        for (index in from until text.length) {
+            if (text[index].isAsciiDigit()) return index
+        }
+        return -1
+    }
+
+    /** Start of the number following the first `ch.` (and spaces), -1 if there is none. */
+    private fun basicNumber(text: String): Int {
+        var index = text.indexOf("ch.")
+        while (index != -1) {
+            var start = index + 3
+            while (start < text.length && text[start] == ' ') start++
+            if (start < text.length && text[start].isAsciiDigit()) return start
+            index = text.indexOf("ch.", index + 1)
+        }
+        return -1
+    }
+
+    /** End of the integer and decimal part of the number starting at [start]. */
+    private fun numberEnd(
+        text: String,
+        start: Int,
+    ): Int {
+        val integerEnd = digitsEnd(text, start)
+        return if (hasDecimal(text, integerEnd)) digitsEnd(text, integerEnd + 1) else integerEnd
+    }
+
+    private fun numberAt(
+        text: String,
+        start: Int,
+    ): Double {
+        val integerEnd = digitsEnd(text, start)
+        val initial = parseDigits(text, start, integerEnd)
+
+        if (hasDecimal(text, integerEnd)) {
+            val decimalEnd = digitsEnd(text, integerEnd + 1)
+            return initial + parseDecimal(text, integerEnd + 1, decimalEnd)
         }
 
+        // Sub chapter letters, with an optional dot before them
+        var alphaStart = integerEnd
+        if (alphaStart < text.length && text[alphaStart] == '.') alphaStart++
+        var alphaEnd = alphaStart
+        while (alphaEnd < text.length && text[alphaEnd] in 'a'..'z') alphaEnd++
+        if (alphaEnd == alphaStart) return initial
+
+        return initial + parseAlpha(text, alphaStart, alphaEnd)
+    }
+
     /**
      * Check for decimal in received strings
-     * @param decimal decimal value of regex
-     * @param alpha alpha value of regex
      * @return decimal/alpha float value
      */
-    private fun checkForDecimal(
-        decimal: String?,
-        alpha: String?,
+    private fun parseAlpha(
+        text: String,
+        start: Int,
+        end: Int,
     ): Double {
-        if (!decimal.isNullOrEmpty()) {
-            return decimal.toDouble()
+        if (text.containsBetween("extra", start, end)) {
+            return 0.99
         }
 
-        if (!alpha.isNullOrEmpty()) {
-            if (alpha.contains("extra")) {
-                return 0.99
-            }
-
-            if (alpha.contains("omake")) {
-                return 0.98
-            }
+        if (text.containsBetween("omake", start, end)) {
+            return 0.98
+        }
 
-            if (alpha.contains("special")) {
-                return 0.97
-            }
+        if (text.containsBetween("special", start, end)) {
+            return 0.97
+        }
 
-            val trimmedAlpha = alpha.trimStart('.')
-            if (trimmedAlpha.length == 1) {
-                return parseAlphaPostFix(trimmedAlpha[0])
-            }
+        if (end - start == 1) {
+            return parseAlphaPostFix(text[start])
         }
 
         return 0.0
@@ -133,4 +194,57 @@ object ChapterRecognition {
         if (number >= 10) return 0.0
         return number / 10.0
     }
+
+    private fun parseDigits(
+        text: String,
+        start: Int,
+        end: Int,
+    ): Double {
+        // Integers below 2^53 convert exactly, longer ones get String.toDouble's rounding
+        if (end - start > 15) return text.substring(start, end).toDouble()
+        var value = 0L
+        for (index in start until end) value = value * 10 + (text[index] - '0')
+        return value.toDouble()
+    }
+
+    /** Value of the digits between [start] and [end] as the fraction `0.<digits>`. */
+    private fun parseDecimal(
+        text: String,
+        start: Int,
+        end: Int,
+    ): Double {
+        // Dividing two exact doubles rounds the same way as parsing the decimal does
+        if (end - start > 15) return text.substring(start - 1, end).toDouble()
+        return parseDigits(text, start, end) / powersOfTen[end - start]
+    }
+
+    private fun digitsEnd(
+        text: String,
+        start: Int,
+    ): Int {
+        var index = start
+        while (index < text.length && text[index].isAsciiDigit()) index++
+        return index
+    }
+
+    private fun hasDecimal(
+        text: String,
+        index: Int,
+    ): Boolean = index + 1 < text.length && text[index] == '.' && text[index + 1].isAsciiDigit()
+
+    private fun String.containsBetween(
+        word: String,
+        start: Int,
+        end: Int,
+    ): Boolean {
+        for (index in start..end - word.length) {
+            if (startsWith(word, index)) return true
+        }
+        return false
+    }
+
+    private fun Char.isAsciiDigit(): Boolean = this in '0'..'9'
+
+    /** `\s` of Java regexes, which only covers ASCII whitespace. */
+    private fun Char.isRegexWhitespace(): Boolean = this == ' ' || this in '\t'..'\r'
 }
@@ -1,40 +1,85 @@
 package eu.kanade.tachiyomi.util.storage
 
+import android.app.Application
+import extension.bridge.logging.androidCompatLogger
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.SerializationException
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.decodeFromStream
+import kotlinx.serialization.json.encodeToStream
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
 import org.apache.commons.compress.archivers.zip.ZipFile
 import org.jsoup.Jsoup
 import org.jsoup.nodes.Document
+import uy.kohesive.injekt.Injekt
+import uy.kohesive.injekt.api.get
 import java.io.Closeable
 import java.io.File
+import java.io.IOException
 import java.io.InputStream
+import java.security.MessageDigest
 
 /**
  * Wrapper over ZipFile to load files in epub format.
+ *
+ * The spine and the images of its pages are indexed the first time they are needed. The index is cached in the
+ * app's cache directory, keyed by the epub's path, and reused while the epub's size and modification time don't
+ * change, so reopening an epub doesn't parse any of its documents again.
+ *
+ * Epubs up to [mapSizeLimit] bytes are read through a [MappedZipReader], by default they are always read through
+ * the zip. A mapped epub stays locked on Windows after [close] until the mapping is garbage collected, so it can't
+ * be deleted or replaced in the meantime.
  */
 class EpubFile(
-    file: File,
+    private val file: File,
+    mapSizeLimit: Long = 0,
 ) : Closeable {
+    /**
+     * Index read from the cache, null if there is none or the epub changed since it was written.
+     */
+    private val cachedIndex = readCachedIndex()
+
     /**
      * Zip file of this epub.
      */
-    private val zip = ZipFile.builder().setFile(file).get()
+    private val zip =
+        ZipFile
+            .builder()
+            .setFile(file)
+            // Local headers are only needed to build the index, reading them seeks once per entry
+            .setIgnoreLocalFileHeader(cachedIndex != null)
+            .get()
+
+    /**
+     * Memory mapping of this epub, null if it's too large or couldn't be mapped.
+     */
+    private val mapped =
+        try {
+            if (mapSizeLimit > 0) MappedZipReader.open(file, mapSizeLimit) else null
+        } catch (e: IOException) {
+            logger.debug(e) { "Unable to map ${file.name}, reading it through the zip" }
+            null
+        }
 
     /**
      * Path separator used by this epub.
      */
-    private val pathSeparator = getPathSeparator()
+    private val pathSeparator = cachedIndex?.pathSeparator ?: getPathSeparator()
+
+    private val index by lazy { cachedIndex ?: buildIndex().also { writeCachedIndex(it) } }
 
     /**
-     * Closes the underlying zip file.
+     * Closes the underlying zip file. A mapping is only released once it's garbage collected, see [MappedZipReader].
      */
     override fun close() {
+        mapped?.close()
         zip.close()
     }
 
     /**
      * Returns an input stream for reading the contents of the specified zip file entry.
      */
-    fun getInputStream(entry: ZipArchiveEntry): InputStream = zip.getInputStream(entry)
+    fun getInputStream(entry: ZipArchiveEntry): InputStream = mapped?.getInputStream(entry) ?: zip.getInputStream(entry)
 
     /**
      * Returns the zip file entry for the specified name, or null if not found.
@@ -44,11 +89,20 @@ class EpubFile(
     /**
      * Returns the path of all the images found in the epub file.
      */
-    fun getImagesFromPages(): List<String> {
-        val ref = getPackageHref()
-        val doc = getPackageDocument(ref)
-        val pages = getPagesFromDocument(doc)
-        return getImagesFromPages(pages, ref)
+    fun getImagesFromPages(): List<String> = index.images
+
+    /**
+     * Returns the number of images found in the epub file.
+     */
+    fun getImageCount(): Int = index.images.size
+
+    /**
+     * Returns an input stream for the image at [position] in reading order.
+     */
+    fun getImageInputStream(position: Int): InputStream {
+        val path = index.images[position]
+        val entry = zip.getEntry(path) ?: throw IOException("Missing image $path in ${file.name}")
+        return getInputStream(entry)
     }
 
     /**
@@ -88,6 +142,16 @@ class EpubFile(
         return spine.mapNotNull { pages[it] }.map { it.attr("href") }
     }
 
+    /**
+     * Parses the package document and every page of the spine once.
+     */
+    private fun buildIndex(): EpubIndex {
+        val ref = getPackageHref()
+        val pages = getPagesFromDocument(getPackageDocument(ref))
+        val images = getImagesFromPages(pages, ref)
+        return EpubIndex(INDEX_VERSION, file.length(), file.lastModified(), pathSeparator, ref, images)
+    }
+
     /**
      * Returns all the images contained in every page from the epub.
      */
@@ -115,6 +179,61 @@ class EpubFile(
         return result
     }
 
+    /**
+     * Returns where the index of this epub is cached, null if there is no cache directory to put it in.
+     */
+    private fun indexFile(): File? {
+        val cacheDir =
+            try {
+                File(Injekt.get<Application>().cacheDir, INDEX_DIRECTORY)
+            } catch (e: RuntimeException) {
+                logger.debug(e) { "No cache directory for epub indexes" }
+                return null
+            }
+        val digest = MessageDigest.getInstance("SHA-1").digest(file.absolutePath.toByteArray())
+        return File(cacheDir, digest.joinToString("") { "%02x".format(it) } + ".json")
+    }
+
+    private fun readCachedIndex(): EpubIndex? {
+        val indexFile = indexFile() ?: return null
+        return try {
+            if (!indexFile.isFile) return null
+            val index = indexFile.inputStream().use { json.decodeFromStream<EpubIndex>(it) }
+            index.takeIf {
+                it.version == INDEX_VERSION && it.size == file.length() && it.lastModified == file.lastModified()
+            }
+        } catch (e: IOException) {
+            logger.debug(e) { "Unable to read epub index ${indexFile.name}" }
+            null
+        } catch (e: SerializationException) {
+            logger.debug(e) { "Ignoring invalid epub index ${indexFile.name}" }
+            null
+        }
+    }
+
+    /**
+     * Caching is best effort, the cache directory might not be writable.
+     */
+    private fun writeCachedIndex(index: EpubIndex) {
+        val indexFile = indexFile() ?: return
+        var tmpFile: File? = null
+        try {
+            indexFile.parentFile.mkdirs()
+            // Unique per writer, so concurrent writers of the same index don't write into each other's file
+            tmpFile = File.createTempFile(indexFile.name, ".tmp", indexFile.parentFile)
+            tmpFile.outputStream().use { json.encodeToStream(index, it) }
+            if (!tmpFile.renameTo(indexFile)) {
+                indexFile.delete()
+                if (!tmpFile.renameTo(indexFile)) tmpFile.delete()
+            }
+        } catch (e: IOException) {
+            logger.debug(e) { "Unable to write epub index ${indexFile.name}" }
+            tmpFile?.delete()
+        } catch (e: SecurityException) {
+            logger.debug(e) { "Unable to write epub index ${indexFile.name}" }
+        }
+    }
+
     /**
      * Returns the path separator used by the epub file.
      */
@@ -139,14 +258,18 @@ class EpubFile(
             return relativePath
         }
 
-        var fixedBasePath = basePath.replace(pathSeparator, File.separator)
-        if (!fixedBasePath.startsWith(File.separator)) {
-            fixedBasePath = "${File.separator}$fixedBasePath"
-        }
-
-        val fixedRelativePath = relativePath.replace(pathSeparator, File.separator)
-        val resolvedPath = File(fixedBasePath, fixedRelativePath).canonicalPath
-        return resolvedPath.replace(File.separator, pathSeparator).substring(1)
+        // Normalized lexically, going through the file system is slow and adds a drive letter on Windows
+        val segments = ArrayDeque<String>()
+        sequenceOf(basePath, relativePath)
+            .flatMap { it.split(pathSeparator) }
+            .forEach { segment ->
+                when (segment) {
+                    "", "." -> Unit
+                    ".." -> segments.removeLastOrNull()
+                    else -> segments.addLast(segment)
+                }
+            }
+        return segments.joinToString(pathSeparator)
     }
 
     /**
@@ -160,4 +283,25 @@ class EpubFile(
             ""
         }
     }
+
+    @Serializable
+    private data class EpubIndex(
+        val version: Int,
+        val size: Long,
+        val lastModified: Long,
+        val pathSeparator: String,
+        val packageHref: String,
+        /** Paths of the images referenced by the pages, in reading order. */
+        val images: List<String>,
+    )
+
+    private companion object {
+        private const val INDEX_VERSION = 2
+
+        private const val INDEX_DIRECTORY = "epub_index"
+
+        private val logger = androidCompatLogger(EpubFile::class.java)
+
+        private val json = Json { ignoreUnknownKeys = true }
+    }
 }
@@ -0,0 +1,170 @@
+package eu.kanade.tachiyomi.util.storage
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
+import org.apache.commons.compress.archivers.zip.ZipMethod
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.Inflater
+import java.util.zip.InflaterInputStream
+
+/**
+ * Reads the entries of a zip archive through a memory mapping of the whole file, for archives read page by page
+ * like epubs and comic archives in the local library.
+ *
+ * Stored entries, which is how most archives keep their images, are served as zero-copy slices of the mapping
+ * and deflated ones are inflated straight from it with pooled inflaters. Entries are found through the central
+ * directory of a regular [org.apache.commons.compress.archivers.zip.ZipFile], this only replaces the reads.
+ *
+ * The JVM has no way to unmap a file, the mapping is released by the garbage collector once the reader and all
+ * slices handed out are unreachable. Until then the file stays mapped, which on Windows also means it can't be
+ * deleted, renamed or overwritten, even after [close]. Only map archives that aren't about to change, and only
+ * up to a few hundred megabytes, see [open].
+ */
+class MappedZipReader private constructor(
+    buffer: ByteBuffer,
+) : Closeable {
+    @Volatile
+    private var buffer: ByteBuffer? = buffer.order(ByteOrder.LITTLE_ENDIAN)
+
+    /**
+     * Returns a read-only slice of the mapping holding the data of [entry] if it is stored uncompressed, null if
+     * it isn't or its data couldn't be located.
+     */
+    fun slice(entry: ZipArchiveEntry): ByteBuffer? {
+        if (entry.method != ZipMethod.STORED.code) return null
+        return rawSlice(entry)
+    }
+
+    /**
+     * Returns an input stream for the data of [entry], or null if it uses a compression method or encryption
+     * this reader doesn't handle and it has to be read through the zip file instead.
+     */
+    fun getInputStream(entry: ZipArchiveEntry): InputStream? =
+        when (entry.method) {
+            ZipMethod.STORED.code -> rawSlice(entry)?.let(::ByteBufferInputStream)
+            ZipMethod.DEFLATED.code -> rawSlice(entry)?.let { PooledInflaterInputStream(ByteBufferInputStream(it)) }
+            else -> null
+        }
+
+    /**
+     * Stops this reader from handing out new streams and slices. It doesn't unmap the file, see [MappedZipReader].
+     */
+    override fun close() {
+        buffer = null
+    }
+
+    private fun rawSlice(entry: ZipArchiveEntry): ByteBuffer? {
+        val buffer = buffer ?: throw IOException("Reader is closed")
+        if (entry.generalPurposeBit.usesEncryption()) return null
+
+        // The central directory doesn't know the length of the local header's extra field, read it from there
+        val headerOffset = entry.localHeaderOffset
+        if (headerOffset < 0 || headerOffset + LOCAL_HEADER_SIZE > buffer.capacity()) return null
+        val header = headerOffset.toInt()
+        if (buffer.getInt(header) != LOCAL_HEADER_SIGNATURE) return null
+        val nameLength = buffer.getShort(header + 26).toInt() and 0xFFFF
+        val extraLength = buffer.getShort(header + 28).toInt() and 0xFFFF
+
+        val dataOffset = headerOffset + LOCAL_HEADER_SIZE + nameLength + extraLength
+        val size = entry.compressedSize
+        if (size < 0 || dataOffset + size > buffer.capacity()) return null
+
+        return buffer
+            .duplicate()
+            .apply {
+                position(dataOffset.toInt())
+                limit((dataOffset + size).toInt())
+            }.slice()
+            .asReadOnlyBuffer()
+    }
+
+    private class ByteBufferInputStream(
+        private val buffer: ByteBuffer,
+    ) : InputStream() {
+        override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+        override fun read(
+            b: ByteArray,
+            off: Int,
+            len: Int,
+        ): Int {
+            if (len == 0) return 0
+            if (!buffer.hasRemaining()) return -1
+            val count = minOf(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+
+        override fun skip(n: Long): Long {
+            val count = n.coerceIn(0, buffer.remaining().toLong()).toInt()
+            buffer.position(buffer.position() + count)
+            return count.toLong()
+        }
+
+        override fun available(): Int = buffer.remaining()
+    }
+
+    /**
+     * Inflates raw deflate data with an inflater borrowed from [inflaters], given back once closed.
+     */
+    private class PooledInflaterInputStream(
+        input: InputStream,
+    ) : InflaterInputStream(input, borrowInflater(), INFLATE_BUFFER_SIZE) {
+        private var closed = false
+
+        override fun close() {
+            if (closed) return
+            closed = true
+            super.close()
+            returnInflater(inf)
+        }
+    }
+
+    companion object {
+        /** Default limit of [open], archives above it are read through the zip file instead of being mapped. */
+        const val DEFAULT_SIZE_LIMIT = 256L * 1024 * 1024
+
+        private const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+        private const val LOCAL_HEADER_SIZE = 30
+        private const val INFLATE_BUFFER_SIZE = 8192
+        private const val MAX_POOLED_INFLATERS = 8
+
+        private val inflaters = ConcurrentLinkedQueue<Inflater>()
+        private val pooledInflaters = AtomicInteger()
+
+        private fun borrowInflater(): Inflater =
+            inflaters.poll()?.also { pooledInflaters.decrementAndGet() } ?: Inflater(true)
+
+        private fun returnInflater(inflater: Inflater) {
+            if (pooledInflaters.incrementAndGet() <= MAX_POOLED_INFLATERS) {
+                inflater.reset()
+                inflaters.offer(inflater)
+            } else {
+                pooledInflaters.decrementAndGet()
+                inflater.end()
+            }
+        }
+
+        /**
+         * Maps [file] if it is no larger than [sizeLimit], returns null otherwise.
+         */
+        fun open(
+            file: File,
+            sizeLimit: Long = DEFAULT_SIZE_LIMIT,
+        ): MappedZipReader? {
+            FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+                val size = channel.size()
+                if (size > minOf(sizeLimit, Int.MAX_VALUE.toLong())) return null
+                return MappedZipReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size))
+            }
+        }
+    }
+}
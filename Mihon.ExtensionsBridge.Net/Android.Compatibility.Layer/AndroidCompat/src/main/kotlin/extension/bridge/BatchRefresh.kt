@@ -0,0 +1,166 @@
+package extension.bridge
+
+import eu.kanade.tachiyomi.source.Source
+import eu.kanade.tachiyomi.source.model.SChapter
+import eu.kanade.tachiyomi.source.model.SManga
+import eu.kanade.tachiyomi.source.online.HttpSource
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.channelFlow
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.launch
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Outcome of refreshing one manga with [refreshAll].
+ */
+sealed class MangaRefreshResult {
+    /** The manga as it was passed to [refreshAll]. */
+    abstract val manga: SManga
+
+    data class Success(
+        override val manga: SManga,
+        /** The updated details, null if they weren't requested. */
+        val details: SManga?,
+        /** The chapter list, null if it wasn't requested. */
+        val chapters: List<SChapter>?,
+    ) : MangaRefreshResult()
+
+    data class Failure(
+        override val manga: SManga,
+        val error: Throwable,
+    ) : MangaRefreshResult()
+}
+
+// Shared by every batch, so batches of sources on the same site take turns instead of piling up on it
+private val hostSlots = ConcurrentHashMap<String, HostSlots>()
+
+/**
+ * Refreshes the details and/or chapter lists of [mangas], with up to [concurrency] of them in progress at once.
+ *
+ * Results are emitted as they complete, so not in the order of [mangas]. A manga that fails is reported as a
+ * [MangaRefreshResult.Failure] and doesn't stop the rest of the batch. Requests to the same host are shared
+ * fairly (first come, first served) between all running batches, on top of the client's own rate limits. A
+ * request of this batch only starts while fewer than [requestsPerHost] requests of any batch run on its host.
+ */
+fun Source.refreshAll(
+    mangas: List<SManga>,
+    concurrency: Int = 4,
+    fetchDetails: Boolean = true,
+    fetchChapters: Boolean = true,
+    requestsPerHost: Int = concurrency,
+): Flow<MangaRefreshResult> {
+    require(concurrency > 0) { "concurrency must be positive, was $concurrency" }
+    require(requestsPerHost > 0) { "requestsPerHost must be positive, was $requestsPerHost" }
+    val source = this
+
+    return channelFlow {
+        val queue = Channel<SManga>(Channel.UNLIMITED)
+        mangas.forEach { queue.trySend(it) }
+        queue.close()
+
+        val slots = hostSlots.getOrPut(source.hostKey()) { HostSlots() }
+        repeat(minOf(concurrency, mangas.size)) {
+            launch {
+                for (manga in queue) {
+                    send(source.refresh(manga, slots, requestsPerHost, fetchDetails, fetchChapters))
+                }
+            }
+        }
+    }.flowOn(Dispatchers.IO)
+}
+
+private suspend fun Source.refresh(
+    manga: SManga,
+    slots: HostSlots,
+    limit: Int,
+    fetchDetails: Boolean,
+    fetchChapters: Boolean,
+): MangaRefreshResult =
+    try {
+        val details = if (fetchDetails) slots.withSlot(limit) { getMangaDetails(manga) } else null
+        val chapters = if (fetchChapters) slots.withSlot(limit) { getChapterList(manga) } else null
+        MangaRefreshResult.Success(manga, details, chapters)
+    } catch (e: CancellationException) {
+        throw e
+    } catch (e: Exception) {
+        MangaRefreshResult.Failure(manga, e)
+    } catch (e: NoClassDefFoundError) {
+        // Old extensions referencing classes that no longer exist
+        MangaRefreshResult.Failure(manga, e)
+    }
+
+private fun Source.hostKey(): String =
+    (this as? HttpSource)
+        // baseUrl may be computed from preferences and throw on a misconfigured source
+        ?.let { runCatching { it.baseUrl.toHttpUrlOrNull()?.host }.getOrNull() }
+        ?: "source:$id"
+
+/**
+ * Requests running on one host. Every caller brings its own limit, and waiting callers are served in order.
+ */
+private class HostSlots {
+    private class Waiter(
+        val limit: Int,
+        val granted: CompletableDeferred<Unit> = CompletableDeferred(),
+    )
+
+    private val waiters = ArrayDeque<Waiter>()
+    private var running = 0
+
+    suspend fun <T> withSlot(
+        limit: Int,
+        block: suspend () -> T,
+    ): T {
+        acquire(limit)
+        try {
+            return block()
+        } finally {
+            release()
+        }
+    }
+
+    private suspend fun acquire(limit: Int) {
+        val waiter =
+            synchronized(this) {
+                if (waiters.isEmpty() && running < limit) {
+                    running++
+                    return
+                }
+                Waiter(limit).also { waiters.addLast(it) }
+            }
+        try {
+            waiter.granted.await()
+        } catch (e: CancellationException) {
+            // grantWaiting() dequeues a waiter and counts its slot before completing it, so a waiter that is no
+            // longer queued holds a slot even if it never saw it
+            val granted = synchronized(this) { !waiters.remove(waiter) }
+            // Cancelled right after being handed a slot, pass it on
+            if (granted) release() else grantWaiting()
+            throw e
+        }
+    }
+
+    private fun release() {
+        synchronized(this) { running-- }
+        grantWaiting()
+    }
+
+    private fun grantWaiting() {
+        val granted = mutableListOf<Waiter>()
+        synchronized(this) {
+            while (true) {
+                val next = waiters.firstOrNull() ?: break
+                if (running >= next.limit) break
+                waiters.removeFirst()
+                running++
+                granted += next
+            }
+        }
+        granted.forEach { it.granted.complete(Unit) }
+    }
+}
@@ -28,6 +28,10 @@ class SettingsConfig(
         var flareSolverrSessionName: String = "extension.bridge",
         var flareSolverrSessionTtl: Int = 15,
         var flareSolverrAsResponseFallback: Boolean = false,
+        var requestCoalescingEnabled: Boolean = false,
+        var adaptiveConcurrencyEnabled: Boolean = false,
+        var captureCallStack: Boolean = false,
+        var dohProvider: Int = -1,
         var interceptorOverrides: MutableMap<String, MutableMap<String, Boolean>> = mutableMapOf(),
     )
 
@@ -54,6 +58,10 @@ class SettingsConfig(
         updateIfChanged("flareSolverrSessionName", current.flareSolverrSessionName, settings.flareSolverrSessionName)
         updateIfChanged("flareSolverrSessionTtl", current.flareSolverrSessionTtl, settings.flareSolverrSessionTtl)
         updateIfChanged("flareSolverrAsResponseFallback", current.flareSolverrAsResponseFallback, settings.flareSolverrAsResponseFallback)
+        updateIfChanged("requestCoalescingEnabled", current.requestCoalescingEnabled, settings.requestCoalescingEnabled)
+        updateIfChanged("adaptiveConcurrencyEnabled", current.adaptiveConcurrencyEnabled, settings.adaptiveConcurrencyEnabled)
+        updateIfChanged("captureCallStack", current.captureCallStack, settings.captureCallStack)
+        updateIfChanged("dohProvider", current.dohProvider, settings.dohProvider)
         updateIfChanged("interceptorOverrides", current.interceptorOverrides, settings.interceptorOverrides)
 
         return settings
@@ -83,6 +91,10 @@ class SettingsConfig(
                 "flareSolverrAsResponseFallback",
                 defaults.flareSolverrAsResponseFallback,
             ),
+            requestCoalescingEnabled = booleanOrDefault("requestCoalescingEnabled", defaults.requestCoalescingEnabled),
+            adaptiveConcurrencyEnabled = booleanOrDefault("adaptiveConcurrencyEnabled", defaults.adaptiveConcurrencyEnabled),
+            captureCallStack = booleanOrDefault("captureCallStack", defaults.captureCallStack),
+            dohProvider = intOrDefault("dohProvider", defaults.dohProvider),
             interceptorOverrides = nestedBooleanMapOrDefault("interceptorOverrides", defaults.interceptorOverrides),
         )
 
@@ -194,6 +206,30 @@ object Settings {
             state().flareSolverrAsResponseFallback = value
         }
 
+    var requestCoalescingEnabled: Boolean
+        get() = state().requestCoalescingEnabled
+        set(value) {
+            state().requestCoalescingEnabled = value
+        }
+
+    var adaptiveConcurrencyEnabled: Boolean
+        get() = state().adaptiveConcurrencyEnabled
+        set(value) {
+            state().adaptiveConcurrencyEnabled = value
+        }
+
+    var captureCallStack: Boolean
+        get() = state().captureCallStack
+        set(value) {
+            state().captureCallStack = value
+        }
+
+    var dohProvider: Int
+        get() = state().dohProvider
+        set(value) {
+            state().dohProvider = value
+        }
+
     var interceptorOverrides: MutableMap<String, MutableMap<String, Boolean>>
         get() = state().interceptorOverrides
         set(value) {
@@ -293,6 +329,10 @@ private fun SettingsConfig.Settings.updateFrom(other: SettingsConfig.Settings) {
     flareSolverrSessionName = other.flareSolverrSessionName
     flareSolverrSessionTtl = other.flareSolverrSessionTtl
     flareSolverrAsResponseFallback = other.flareSolverrAsResponseFallback
+    requestCoalescingEnabled = other.requestCoalescingEnabled
+    adaptiveConcurrencyEnabled = other.adaptiveConcurrencyEnabled
+    captureCallStack = other.captureCallStack
+    dohProvider = other.dohProvider
     interceptorOverrides = other.interceptorOverrides.deepCopy()
 }
 
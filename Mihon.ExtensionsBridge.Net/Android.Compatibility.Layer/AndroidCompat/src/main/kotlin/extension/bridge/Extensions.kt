@@ -9,9 +9,14 @@ import java.nio.file.Path
 import javax.xml.parsers.DocumentBuilderFactory
 import kotlin.io.path.Path
 import kotlin.io.path.relativeTo
+import eu.kanade.tachiyomi.network.NetworkHelper
 import eu.kanade.tachiyomi.source.CatalogueSource
 import eu.kanade.tachiyomi.source.Source
 import eu.kanade.tachiyomi.source.SourceFactory
+import eu.kanade.tachiyomi.source.online.HttpSource
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import uy.kohesive.injekt.Injekt
+import uy.kohesive.injekt.api.get
 
 object Extensions {
    
@@ -26,9 +31,25 @@ object Extensions {
                 is SourceFactory -> extensionMainClassInstance.createSources()
                 else -> throw RuntimeException("Unknown source class type! ${extensionMainClassInstance.javaClass}")
             }.map { it as CatalogueSource }
+        // The host builds the class name from the extension's package and its relative class name
+        val packageName = className.substringBeforeLast('.')
+        sources.filterIsInstance<HttpSource>().forEach { it.extensionPackageName = packageName }
+        prefetchHosts(sources)
         return sources
     }
 
+    /** Warms the DNS cache for the sources' sites, their first request usually follows shortly. */
+    private fun prefetchHosts(sources: List<CatalogueSource>) {
+        val hosts =
+            sources.filterIsInstance<HttpSource>().mapNotNull { source ->
+                // baseUrl may be computed from preferences and throw on a misconfigured source
+                runCatching { source.baseUrl.toHttpUrlOrNull()?.host }.getOrNull()
+            }
+        if (hosts.isNotEmpty()) {
+            Injekt.get<NetworkHelper>().dns.prefetch(hosts)
+        }
+    }
+
     /**
      * loads the extension main class called [className] from the jar located at [jarPath]
      * It may return an instance of HttpSource or SourceFactory depending on the extension.
@@ -16,7 +16,11 @@ import java.util.Date
 import android.os.Looper
 import eu.kanade.tachiyomi.App
 import eu.kanade.tachiyomi.createAppModule
+import eu.kanade.tachiyomi.network.HostConnectionStats
 import eu.kanade.tachiyomi.network.NetworkHelper
+import eu.kanade.tachiyomi.network.RequestMetricsSnapshot
+import eu.kanade.tachiyomi.network.interceptor.WebViewFetchInterceptor
+import eu.kanade.tachiyomi.network.interceptor.WebViewPoolStats
 import org.koin.core.context.startKoin
 import org.koin.core.module.Module
 import okhttp3.Cookie
@@ -95,6 +99,8 @@ import extension.bridge.logging.androidCompatLogger
 import extension.bridge.network.SystemProxyBridge
 import extension.bridge.security.TrustManagerBridge
 import extension.bridge.cef.CefMessageLoopBridge
+import extension.bridge.tracing.TraceSpan
+import extension.bridge.tracing.Tracing
 import android.webkit.CookieManager
 import java.net.URL
 import java.net.URLClassLoader
@@ -199,6 +205,38 @@ object AndroidCompatRuntime {
         Thread.setDefaultUncaughtExceptionHandler(null)
         defaultUncaughtHandler = null
     }
+
+    /** Current request metrics per source and host, for dashboards. */
+    fun requestMetrics(): List<RequestMetricsSnapshot> = Injekt.get<NetworkHelper>().requestMetrics.snapshot()
+
+    /** Protocol, connection reuse and connect time counters per host, for dashboards. */
+    fun connectionStats(): List<HostConnectionStats> = Injekt.get<NetworkHelper>().connectionStats.stats()
+
+    /**
+     * Opens connections to the sites of [urls] ahead of the first requests to them, with [http1Connections]
+     * (at most 2) connections for hosts that only speak HTTP/1.1 and a single one for HTTP/2 hosts.
+     */
+    fun warmUpConnections(
+        urls: List<String>,
+        http1Connections: Int = 1,
+    ) {
+        Injekt.get<NetworkHelper>().warmUp(urls, http1Connections)
+    }
+
+    /** Hit rate, evictions and latency of the WebView pool used for WebView fetches. */
+    fun webViewPoolStats(): WebViewPoolStats = WebViewFetchInterceptor.poolStats()
+
+    /** Turns request tracing on or off, spans slower than [logThresholdMillis] are also logged when >= 0. */
+    fun setTracingEnabled(
+        enabled: Boolean,
+        logThresholdMillis: Long = -1,
+    ) {
+        Tracing.logThresholdMillis = logThresholdMillis
+        Tracing.enabled = enabled
+    }
+
+    /** Finished tracing spans since the last call, oldest first. */
+    fun drainSpans(): List<TraceSpan> = Tracing.drain()
 }
 val jarLoaderMap = mutableMapOf<String, URLClassLoader>()
 private val extensionLoaderLogger = androidCompatLogger(AndroidCompatRuntime::class.java)
@@ -0,0 +1,164 @@
+package extension.bridge.tracing
+
+import extension.bridge.logging.androidCompatLogger
+import kotlinx.coroutines.asContextElement
+import kotlinx.coroutines.withContext
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReferenceArray
+import kotlin.random.Random
+
+/**
+ * One timed step of a trace, e.g. a source's `getPageList` or an interceptor handling its request.
+ * Spans of the same trace share [traceId] and point to the span they ran in through [parentId].
+ */
+class TraceSpan internal constructor(
+    val traceId: Long,
+    val parentId: Long?,
+    val name: String,
+) {
+    val spanId: Long = Random.nextLong()
+    val startEpochMillis: Long = System.currentTimeMillis()
+    private val startNanos = System.nanoTime()
+
+    private val attributes = ConcurrentHashMap<String, String>()
+
+    @Volatile
+    var durationNanos: Long = -1
+        private set
+
+    @Volatile
+    var error: String? = null
+        private set
+
+    val durationMillis: Double
+        get() = durationNanos / 1_000_000.0
+
+    fun attributes(): Map<String, String> = attributes.toMap()
+
+    fun setAttribute(
+        key: String,
+        value: Any?,
+    ) {
+        if (value != null) attributes[key] = value.toString()
+    }
+
+    @PublishedApi
+    internal fun end(error: Throwable? = null) {
+        if (durationNanos >= 0) return
+        this.error = error?.let { it::class.java.simpleName + (it.message?.let { message -> ": $message" } ?: "") }
+        durationNanos = System.nanoTime() - startNanos
+        Tracing.export(this)
+    }
+
+    override fun toString(): String =
+        buildString {
+            append("$name ${"%.1f".format(durationMillis)}ms trace=${traceId.toULong().toString(16)}")
+            append(" span=${spanId.toULong().toString(16)}")
+            parentId?.let { append(" parent=${it.toULong().toString(16)}") }
+            attributes.forEach { (key, value) -> append(" $key=$value") }
+            error?.let { append(" error=\"$it\"") }
+        }
+}
+
+/**
+ * Lightweight tracing of source calls down to the network. Disabled by default, the host turns it on with
+ * [enabled] and then either drains the finished spans with [drain] or has spans slower than
+ * [logThresholdMillis] written to its log sink.
+ *
+ * The current span follows the thread, and coroutines started through [traced]. OkHttp calls pick it up when
+ * they are created, see `CallTracing`.
+ */
+object Tracing {
+    private val logger = androidCompatLogger(Tracing::class.java)
+
+    @Volatile
+    var enabled: Boolean = false
+
+    /** Finished spans at least this slow are logged, negative to never log them. */
+    @Volatile
+    var logThresholdMillis: Long = -1
+
+    private const val BUFFER_SIZE = 4096
+
+    // Lock-free ring buffer, the oldest spans are overwritten when the host doesn't drain it in time
+    private val buffer = AtomicReferenceArray<TraceSpan>(BUFFER_SIZE)
+    private val written = AtomicLong()
+
+    private val current = ThreadLocal<TraceSpan?>()
+
+    fun current(): TraceSpan? = current.get()
+
+    /** Starts a span below [parent], or a new trace without one. Returns null while tracing is disabled. */
+    fun start(
+        name: String,
+        parent: TraceSpan? = current(),
+    ): TraceSpan? {
+        if (!enabled) return null
+        return TraceSpan(parent?.traceId ?: Random.nextLong(), parent?.spanId, name)
+    }
+
+    /** Runs [block] in a new span below [parent], which is the current span of the thread while it runs. */
+    inline fun <T> span(
+        name: String,
+        parent: TraceSpan? = current(),
+        block: (TraceSpan?) -> T,
+    ): T {
+        val span = start(name, parent) ?: return block(null)
+        val previous = enter(span)
+        try {
+            return block(span)
+        } catch (e: Throwable) {
+            span.end(e)
+            throw e
+        } finally {
+            span.end()
+            exit(previous)
+        }
+    }
+
+    /** Suspending version of [span], the span stays current across the coroutine's threads. */
+    suspend fun <T> traced(
+        name: String,
+        block: suspend (TraceSpan?) -> T,
+    ): T {
+        val span = start(name) ?: return block(null)
+        return withContext(current.asContextElement(span)) {
+            try {
+                block(span)
+            } catch (e: Throwable) {
+                span.end(e)
+                throw e
+            } finally {
+                span.end()
+            }
+        }
+    }
+
+    /** Returns and removes the spans finished since the last call, oldest first. */
+    fun drain(): List<TraceSpan> =
+        (0 until BUFFER_SIZE)
+            .mapNotNull { buffer.getAndSet(it, null) }
+            .sortedBy { it.startEpochMillis }
+
+    @PublishedApi
+    internal fun enter(span: TraceSpan): TraceSpan? {
+        val previous = current.get()
+        current.set(span)
+        return previous
+    }
+
+    @PublishedApi
+    internal fun exit(previous: TraceSpan?) {
+        current.set(previous)
+    }
+
+    internal fun export(span: TraceSpan) {
+        buffer.set((written.getAndIncrement() % BUFFER_SIZE).toInt(), span)
+        val threshold = logThresholdMillis
+        if (threshold >= 0 && TimeUnit.NANOSECONDS.toMillis(span.durationNanos) >= threshold) {
+            logger.info { "Slow span: $span" }
+        }
+    }
+}